@@ -0,0 +1,251 @@
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * 所有 BorderDrawable 共用的位图池。
+ * 不再使用的位图按占用的内存大小分桶保存，申请新位图时优先取一张足够大的重新配置尺寸后复用，
+ * 总大小超过上限时回收最早放进来的位图。
+ */
+public final class BitmapPool {
+
+    // 默认最多保留 2MB 的空闲位图
+    private static final int DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+
+    // 第 n 个桶保存占用内存在 [2^n, 2^(n+1)) 之间的位图
+    private static final int BUCKET_COUNT = 32;
+
+    private static final BitmapPool sInstance = new BitmapPool(DEFAULT_MAX_SIZE);
+
+    public static BitmapPool getInstance() {
+        return sInstance;
+    }
+
+    @SuppressWarnings("unchecked")
+    private final ArrayList<Bitmap>[] mBuckets = (ArrayList<Bitmap>[]) new ArrayList<?>[BUCKET_COUNT];
+    // 放进来的顺序，超出上限时从最早的开始回收
+    private final LinkedHashSet<Bitmap> mLru = new LinkedHashSet<Bitmap>();
+
+    private int mSize;
+    private int mMaxSize;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+    private long mReusedBytes;
+
+    private BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 取一张指定尺寸的透明位图，池里没有合适的就新建一张
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+            BorderMetrics.notifyBitmapAllocated(getByteCount(bitmap));
+            return bitmap;
+        }
+        BorderMetrics.notifyEvent(BorderMetrics.EVENT_POOL_REUSE);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    private synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        int needed = getRowBytes(width, config) * height;
+        Bitmap result = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // 只在相邻的两个桶里找，避免用很大的位图去装小图
+            int bucket = getBucket(needed);
+            for (int i = bucket; i < BUCKET_COUNT && i <= bucket + 1 && result == null; i++) {
+                result = removeSmallest(mBuckets[i], needed);
+            }
+            if (result != null) {
+                try {
+                    result.reconfigure(width, height, config);
+                } catch (IllegalArgumentException e) {
+                    // 行的对齐方式与估计的不同，位图还能给别人用，放回去
+                    add(result, getByteCount(result));
+                    result = null;
+                }
+            }
+        } else {
+            // 不能重新配置尺寸，只能复用完全一样的
+            int bucket = getBucket(needed);
+            result = removeExact(mBuckets[bucket], width, height, config);
+        }
+
+        if (result == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        mReusedBytes += needed;
+        return result;
+    }
+
+    /**
+     * 放回不再使用的位图，之后不能再使用它
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap.isRecycled() || mLru.contains(bitmap)) {
+            return;
+        }
+        int byteCount = getByteCount(bitmap);
+        if (!bitmap.isMutable() || byteCount > mMaxSize) {
+            bitmap.recycle();
+            BorderMetrics.notifyBitmapFreed(byteCount);
+            return;
+        }
+        add(bitmap, byteCount);
+        mPutCount++;
+        trimToSize(mMaxSize);
+    }
+
+    private void add(Bitmap bitmap, int byteCount) {
+        int bucket = getBucket(byteCount);
+        if (mBuckets[bucket] == null) {
+            mBuckets[bucket] = new ArrayList<Bitmap>();
+        }
+        mBuckets[bucket].add(bitmap);
+        mLru.add(bitmap);
+        mSize += byteCount;
+    }
+
+    public synchronized void trimToSize(int maxSize) {
+        Iterator<Bitmap> iterator = mLru.iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+            int byteCount = getByteCount(bitmap);
+            mBuckets[getBucket(byteCount)].remove(bitmap);
+            mSize -= byteCount;
+            mEvictionCount++;
+            bitmap.recycle();
+            BorderMetrics.notifyBitmapFreed(byteCount);
+        }
+    }
+
+    public void evictAll() {
+        trimToSize(-1);
+    }
+
+    public synchronized void resize(int maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized int maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public synchronized int putCount() {
+        return mPutCount;
+    }
+
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * 复用位图省下的分配字节数
+     */
+    public synchronized long reusedBytes() {
+        return mReusedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return "BitmapPool[size=" + mSize + ",maxSize=" + mMaxSize +
+                ",bitmaps=" + mLru.size() + ",hits=" + mHitCount + ",misses=" + mMissCount +
+                ",hitRate=" + hitPercent + "%,reusedBytes=" + mReusedBytes + "]";
+    }
+
+    private Bitmap removeSmallest(ArrayList<Bitmap> bucket, int needed) {
+        if (bucket == null) {
+            return null;
+        }
+        int index = -1;
+        int smallest = Integer.MAX_VALUE;
+        for (int i = 0, size = bucket.size(); i < size; i++) {
+            int byteCount = getByteCount(bucket.get(i));
+            if (byteCount >= needed && byteCount < smallest) {
+                smallest = byteCount;
+                index = i;
+            }
+        }
+        if (index < 0) {
+            return null;
+        }
+        Bitmap bitmap = bucket.remove(index);
+        mLru.remove(bitmap);
+        mSize -= smallest;
+        return bitmap;
+    }
+
+    private Bitmap removeExact(ArrayList<Bitmap> bucket, int width, int height, Bitmap.Config config) {
+        if (bucket == null) {
+            return null;
+        }
+        for (int i = 0, size = bucket.size(); i < size; i++) {
+            Bitmap bitmap = bucket.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                bucket.remove(i);
+                mLru.remove(bitmap);
+                mSize -= getByteCount(bitmap);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    private static int getBucket(int byteCount) {
+        return byteCount <= 1 ? 0 : 31 - Integer.numberOfLeadingZeros(byteCount);
+    }
+
+    static int getByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * 与 Bitmap.getRowBytes 一致的估计：每行向上对齐到 4 字节，ALPHA_8 的行在有些版本上是补齐的。
+     * NinePatchCache 也按 getRowBytes() * getHeight() 计算大小
+     */
+    private static int getRowBytes(int width, Bitmap.Config config) {
+        return (width * getBytesPerPixel(config) + 3) & ~3;
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,263 @@
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+import javax.annotation.Nullable;
+
+/**
+ * BorderDrawable 的前景，用来模拟圆角对内容的裁剪，由 BorderDrawable.createContentClip 创建。
+ * 圆角外面填充 outsideColor，圆角处再画一遍边框，盖住超出内框的内容。
+ * 四个角拼在一张小位图里，按样式和 outsideColor 放在 NinePatchCache 里，相同的样式共用一张，
+ * 与边框一起计入缓存的大小，内存紧张时随 BorderDrawable 一起释放。位图在 BorderDrawable 的 update 里准备（异步模式下在工作线程生成），
+ * 绘制时只画准备好的四块位图，不需要 saveLayer 和 clipPath。过渡动画中圆角和颜色每一帧都在变，不画前景。
+ */
+public final class BorderClipDrawable extends Drawable {
+
+    private static final PorterDuffXfermode XFERMODE_DST_OUT = new PorterDuffXfermode(PorterDuff.Mode.DST_OUT);
+
+    private final BorderDrawable mOwner;
+    private final int mOutsideColor;
+    private final Paint mPaint = new Paint();
+    private final BorderGeometry mGeometry = new BorderGeometry();
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
+
+    @Nullable
+    private NinePatchCache.Entry mTileEntry;
+    // 已经准备（或者正在生成）的样式
+    @Nullable
+    private BorderStyle mTileStyle;
+    // 与 NinePatch 的 chunk 一致：左上角的宽高，以及右下角在位图里的起点
+    private int mLeft;
+    private int mTop;
+    private int mRightDiv;
+    private int mBottomDiv;
+
+    BorderClipDrawable(BorderDrawable owner, int outsideColor) {
+        mOwner = owner;
+        mOutsideColor = outsideColor;
+    }
+
+    public int getOutsideColor() {
+        return mOutsideColor;
+    }
+
+    /**
+     * 准备样式对应的圆角位图，缓存里没有时按 BorderDrawable 的设置同步或者异步生成
+     */
+    void prepare(BorderStyle style) {
+        if (style == mTileStyle) {
+            return;
+        }
+        mTileStyle = style;
+        freeTile();
+        if (!style.hasCornerRadii) {
+            return;
+        }
+        final TileKey key = new TileKey(style, mOutsideColor);
+        final String name = mOwner.mName;
+        if (!mOwner.isAsyncRasterize()) {
+            setTile(obtainTile(key, name));
+            return;
+        }
+        NinePatchCache.Entry entry = NinePatchCache.getInstance().acquire(key);
+        if (entry != null) {
+            setTile(entry);
+            return;
+        }
+        BorderDrawable.getRasterizeExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final NinePatchCache.Entry result = obtainTile(key, name);
+                BorderDrawable.getMainHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTileBuilt(key, result);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onTileBuilt(TileKey key, NinePatchCache.Entry entry) {
+        if (key.style != mTileStyle || mTileEntry != null) {
+            // 样式已经变了，位图留在缓存里给别人用
+            BorderDrawable.releaseEntry(entry);
+            return;
+        }
+        setTile(entry);
+    }
+
+    private void setTile(NinePatchCache.Entry entry) {
+        mTileEntry = entry;
+        BorderMemory.register(mOwner, entry);
+        BorderStyle style = ((TileKey) entry.key).style;
+        BorderGeometry geometry = mGeometry;
+        geometry.set(style.topWidth, style.rightWidth, style.bottomWidth, style.leftWidth,
+                style.topLeftRadius, style.topRightRadius, style.bottomRightRadius, style.bottomLeftRadius);
+        mLeft = (int) Math.ceil(geometry.edgeLeft);
+        mTop = (int) Math.ceil(geometry.edgeTop);
+        mRightDiv = (int) geometry.width - (int) Math.ceil(geometry.edgeRight);
+        mBottomDiv = (int) geometry.height - (int) Math.ceil(geometry.edgeBottom);
+        invalidateSelf();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mOwner.isAnimating()) {
+            return;
+        }
+        // 只画 update 里准备好的位图，还没准备好（或者还在生成）时不画
+        NinePatchCache.Entry entry = mTileEntry;
+        if (entry == null || mTileStyle != mOwner.getRenderedStyle()) {
+            return;
+        }
+        Bitmap tile = entry.bitmap;
+        Rect bounds = getBounds();
+        int right = tile.getWidth() - mRightDiv;
+        int bottom = tile.getHeight() - mBottomDiv;
+
+        drawCorner(canvas, tile, 0, 0, mLeft, mTop,
+                bounds.left, bounds.top);
+        drawCorner(canvas, tile, mRightDiv, 0, tile.getWidth(), mTop,
+                bounds.right - right, bounds.top);
+        drawCorner(canvas, tile, mRightDiv, mBottomDiv, tile.getWidth(), tile.getHeight(),
+                bounds.right - right, bounds.bottom - bottom);
+        drawCorner(canvas, tile, 0, mBottomDiv, mLeft, tile.getHeight(),
+                bounds.left, bounds.bottom - bottom);
+    }
+
+    private void drawCorner(Canvas canvas, Bitmap tile, int left, int top, int right, int bottom,
+                            int x, int y) {
+        if (right <= left || bottom <= top) {
+            return;
+        }
+        mSrc.set(left, top, right, bottom);
+        mDst.set(x, y, x + right - left, y + bottom - top);
+        canvas.drawBitmap(tile, mSrc, mDst, mPaint);
+    }
+
+    /**
+     * 从缓存里取得圆角位图，没有的话在当前线程生成，引用计数已经加一。
+     * 位图与边框的 NinePatch 同样大小：外框外面是 outsideColor，外框与内框之间是边框，其余透明，只有四个角会被用到
+     */
+    static NinePatchCache.Entry obtainTile(TileKey key, String name) {
+        NinePatchCache cache = NinePatchCache.getInstance();
+        NinePatchCache.Entry entry = cache.acquire(key);
+        if (entry != null) {
+            return entry;
+        }
+        BorderStyle style = key.style;
+        NinePatchCache.Entry shapeEntry = BorderDrawable.obtainCacheEntry(
+                style.getShapeMask(), name, Bitmap.Config.ALPHA_8);
+        NinePatchCache.Entry borderEntry = null;
+        int borderColor = Color.BLACK;
+        if (style.visibleBorderColorsAreEqual) {
+            // 颜色相同时共用边框的遮罩，着色后绘制
+            BorderStyle borderMask = style.getBorderMask();
+            if (borderMask != null) {
+                borderEntry = BorderDrawable.obtainCacheEntry(borderMask, name, Bitmap.Config.ALPHA_8);
+                borderColor = style.visibleBorderColor;
+            }
+        } else {
+            // 没有背景的边框，样式本身没有背景时就是边框正在使用的那一张
+            BorderStyle ring = new BorderStyle.Builder(style)
+                    .setBackgroundColor(Color.TRANSPARENT)
+                    .build();
+            borderEntry = BorderDrawable.obtainCacheEntry(ring, name, Bitmap.Config.ARGB_8888);
+        }
+
+        Bitmap shape = shapeEntry.bitmap;
+        Bitmap tile = BitmapPool.getInstance().get(shape.getWidth(), shape.getHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(tile);
+        canvas.drawColor(key.outsideColor, PorterDuff.Mode.SRC);
+        Paint paint = new Paint();
+        paint.setXfermode(XFERMODE_DST_OUT);
+        canvas.drawBitmap(shape, 0, 0, paint);
+        if (borderEntry != null) {
+            paint.setXfermode(null);
+            // 在软件 Canvas 上绘制，ALPHA_8 按画笔颜色绘制，ARGB 的位图只用到画笔的透明度
+            paint.setColor(borderColor);
+            canvas.drawBitmap(borderEntry.bitmap, 0, 0, paint);
+        }
+        canvas.setBitmap(null);
+
+        BorderDrawable.releaseEntry(shapeEntry);
+        BorderDrawable.releaseEntry(borderEntry);
+        return cache.put(key, tile, null, name);
+    }
+
+    private void freeTile() {
+        if (mTileEntry != null) {
+            BorderMemory.unregister(mOwner, mTileEntry);
+            BorderDrawable.releaseEntry(mTileEntry);
+            mTileEntry = null;
+        }
+    }
+
+    /**
+     * 内存紧张时由 BorderDrawable.trimBitmap 调用，释放圆角位图，下一次 update 时重新准备。
+     * 返回 false 表示没有可以释放的
+     */
+    boolean trimTile() {
+        boolean prepared = mTileStyle != null;
+        freeTile();
+        mTileStyle = null;
+        return prepared;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+        mPaint.setColorFilter(cf);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    /**
+     * NinePatchCache 里圆角位图的键
+     */
+    static final class TileKey {
+        final BorderStyle style;
+        final int outsideColor;
+
+        TileKey(BorderStyle style, int outsideColor) {
+            this.style = style;
+            this.outsideColor = outsideColor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            // 样式是驻留的
+            return style == other.style && outsideColor == other.outsideColor;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * style.hashCode() + outsideColor;
+        }
+    }
+}
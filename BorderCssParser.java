@@ -0,0 +1,596 @@
+import android.graphics.Color;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 把 CSS 声明解析成 BorderStyle，例如
+ * "border-width:1px 2px;border-color:#f00 rgba(0,0,0,.5);border-radius:4px;background-color:#fff"。
+ * 直接在 CharSequence 上按下标扫描，不创建中间字符串；相同的声明字符串会直接从缓存里返回解析好的样式。
+ * 不认识的属性和无法解析的值会被忽略，与浏览器的行为一致。
+ */
+public final class BorderCssParser {
+
+    // 缓存最近使用的声明字符串
+    private static final int MAX_CACHE_SIZE = 128;
+
+    private static final LinkedHashMap<String, BorderStyle> sCache =
+            new LinkedHashMap<String, BorderStyle>(0, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, BorderStyle> eldest) {
+                    return size() > MAX_CACHE_SIZE;
+                }
+            };
+
+    private static final ThreadLocal<BorderCssParser> sParser = new ThreadLocal<BorderCssParser>() {
+        @Override
+        protected BorderCssParser initialValue() {
+            return new BorderCssParser();
+        }
+    };
+
+    // 支持的属性，下标即为属性的编号
+    private static final String[] PROPERTIES = new String[]{
+            "border",
+            "border-top",
+            "border-right",
+            "border-bottom",
+            "border-left",
+            "border-width",
+            "border-top-width",
+            "border-right-width",
+            "border-bottom-width",
+            "border-left-width",
+            "border-color",
+            "border-top-color",
+            "border-right-color",
+            "border-bottom-color",
+            "border-left-color",
+            "border-radius",
+            "border-top-left-radius",
+            "border-top-right-radius",
+            "border-bottom-right-radius",
+            "border-bottom-left-radius",
+            "background-color",
+            "background",
+            "border-style",
+            "border-top-style",
+            "border-right-style",
+            "border-bottom-style",
+            "border-left-style",
+    };
+
+    private static final int PROP_BORDER = 0;
+    // border-top 到 border-left 与 PROP_BORDER 的差即为 TOP、RIGHT、BOTTOM、LEFT 的顺序
+    private static final int PROP_BORDER_SIDE = 1;
+    private static final int PROP_BORDER_WIDTH = 5;
+    private static final int PROP_BORDER_SIDE_WIDTH = 6;
+    private static final int PROP_BORDER_COLOR = 10;
+    private static final int PROP_BORDER_SIDE_COLOR = 11;
+    private static final int PROP_BORDER_RADIUS = 15;
+    private static final int PROP_BORDER_CORNER_RADIUS = 16;
+    private static final int PROP_BACKGROUND_COLOR = 20;
+    private static final int PROP_BACKGROUND = 21;
+    private static final int PROP_BORDER_STYLE = 22;
+    private static final int PROP_BORDER_SIDE_STYLE = 23;
+
+    // 不支持的线型按实线绘制
+    private static final String[] STYLE_NAMES = new String[]{
+            "solid", "dashed", "dotted", "double", "groove", "ridge", "inset", "outset",
+    };
+    private static final int[] STYLE_VALUES = new int[]{
+            BorderDrawable.BORDER_STYLE_SOLID, BorderDrawable.BORDER_STYLE_DASHED, BorderDrawable.BORDER_STYLE_DOTTED,
+            BorderDrawable.BORDER_STYLE_SOLID, BorderDrawable.BORDER_STYLE_SOLID, BorderDrawable.BORDER_STYLE_SOLID,
+            BorderDrawable.BORDER_STYLE_SOLID, BorderDrawable.BORDER_STYLE_SOLID,
+    };
+
+    private static final String[] COLOR_NAMES = new String[]{
+            "transparent", "black", "white", "red", "green", "blue",
+            "yellow", "gray", "grey", "silver", "cyan", "magenta",
+    };
+    private static final int[] COLOR_VALUES = new int[]{
+            Color.TRANSPARENT, 0xFF000000, 0xFFFFFFFF, 0xFFFF0000, 0xFF008000, 0xFF0000FF,
+            0xFFFFFF00, 0xFF808080, 0xFF808080, 0xFFC0C0C0, 0xFF00FFFF, 0xFFFF00FF,
+    };
+
+    // 数组顺序都是上、右、下、左，圆角是左上、右上、右下、左下
+    private final float[] mWidths = new float[4];
+    private final int[] mColors = new int[4];
+    private final float[] mRadii = new float[4];
+    private final int[] mStyles = new int[4];
+    private int mBackgroundColor;
+
+    // 一个值里最多四个分量，记录每个分量的起止位置
+    private final int[] mTokenStarts = new int[4];
+    private final int[] mTokenEnds = new int[4];
+    private int mTokenCount;
+
+    // 最后一次 parseNumber / parseColor 的结果
+    private float mNumber;
+    private int mColor;
+    private int mStyle;
+
+    private final BorderStyle.Builder mBuilder = new BorderStyle.Builder();
+
+    private BorderCssParser() {
+    }
+
+    /**
+     * 解析 CSS 声明，没有声明的属性使用默认值（无边框、黑色、无圆角、透明背景）
+     */
+    public static BorderStyle parse(CharSequence css) {
+        // 只有 String 可以安全地作为缓存的键
+        String key = css instanceof String ? (String) css : null;
+        if (key != null) {
+            synchronized (sCache) {
+                BorderStyle style = sCache.get(key);
+                if (style != null) {
+                    return style;
+                }
+            }
+        }
+        BorderStyle style = sParser.get().parseDeclarations(css);
+        if (key != null) {
+            synchronized (sCache) {
+                sCache.put(key, style);
+            }
+        }
+        return style;
+    }
+
+    public static void clearCache() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
+    }
+
+    private BorderStyle parseDeclarations(CharSequence css) {
+        mWidths[0] = mWidths[1] = mWidths[2] = mWidths[3] = 0f;
+        mColors[0] = mColors[1] = mColors[2] = mColors[3] = Color.BLACK;
+        mRadii[0] = mRadii[1] = mRadii[2] = mRadii[3] = 0f;
+        mStyles[0] = mStyles[1] = mStyles[2] = mStyles[3] = BorderDrawable.BORDER_STYLE_SOLID;
+        mBackgroundColor = Color.TRANSPARENT;
+
+        int length = css.length();
+        int pos = 0;
+        while (pos < length) {
+            int end = indexOf(css, ';', pos, length);
+            int colon = indexOf(css, ':', pos, end);
+            if (colon < end) {
+                int property = findProperty(css, pos, colon);
+                if (property >= 0) {
+                    parseDeclaration(css, property, colon + 1, end);
+                }
+            }
+            pos = end + 1;
+        }
+
+        return mBuilder
+                .setBorderWidths(mWidths[0], mWidths[1], mWidths[2], mWidths[3])
+                .setBorderColors(mColors[0], mColors[1], mColors[2], mColors[3])
+                .setBorderRadii(mRadii[0], mRadii[1], mRadii[2], mRadii[3])
+                .setBorderStyles(mStyles[0], mStyles[1], mStyles[2], mStyles[3])
+                .setBackgroundColor(mBackgroundColor)
+                .build();
+    }
+
+    private void parseDeclaration(CharSequence css, int property, int start, int end) {
+        if (!tokenize(css, start, end)) {
+            return;
+        }
+        switch (property) {
+            case PROP_BORDER:
+                parseBorder(css, 0, 4);
+                break;
+            case PROP_BORDER_SIDE:
+            case PROP_BORDER_SIDE + 1:
+            case PROP_BORDER_SIDE + 2:
+            case PROP_BORDER_SIDE + 3:
+                parseBorder(css, property - PROP_BORDER_SIDE, 1);
+                break;
+            case PROP_BORDER_WIDTH:
+                parseBoxLengths(css, mWidths);
+                break;
+            case PROP_BORDER_SIDE_WIDTH:
+            case PROP_BORDER_SIDE_WIDTH + 1:
+            case PROP_BORDER_SIDE_WIDTH + 2:
+            case PROP_BORDER_SIDE_WIDTH + 3:
+                if (mTokenCount == 1 && parseLength(css, mTokenStarts[0], mTokenEnds[0])) {
+                    mWidths[property - PROP_BORDER_SIDE_WIDTH] = mNumber;
+                }
+                break;
+            case PROP_BORDER_COLOR:
+                parseBoxColors(css);
+                break;
+            case PROP_BORDER_SIDE_COLOR:
+            case PROP_BORDER_SIDE_COLOR + 1:
+            case PROP_BORDER_SIDE_COLOR + 2:
+            case PROP_BORDER_SIDE_COLOR + 3:
+                if (mTokenCount == 1 && parseColor(css, mTokenStarts[0], mTokenEnds[0])) {
+                    mColors[property - PROP_BORDER_SIDE_COLOR] = mColor;
+                }
+                break;
+            case PROP_BORDER_RADIUS:
+                parseBoxLengths(css, mRadii);
+                break;
+            case PROP_BORDER_CORNER_RADIUS:
+            case PROP_BORDER_CORNER_RADIUS + 1:
+            case PROP_BORDER_CORNER_RADIUS + 2:
+            case PROP_BORDER_CORNER_RADIUS + 3:
+                // 只支持圆形的圆角，第二个值（椭圆）忽略
+                if (parseLength(css, mTokenStarts[0], mTokenEnds[0])) {
+                    mRadii[property - PROP_BORDER_CORNER_RADIUS] = mNumber;
+                }
+                break;
+            case PROP_BACKGROUND_COLOR:
+            case PROP_BACKGROUND:
+                if (mTokenCount == 1 && parseColor(css, mTokenStarts[0], mTokenEnds[0])) {
+                    mBackgroundColor = mColor;
+                }
+                break;
+            case PROP_BORDER_STYLE:
+                parseBoxStyles(css);
+                break;
+            case PROP_BORDER_SIDE_STYLE:
+            case PROP_BORDER_SIDE_STYLE + 1:
+            case PROP_BORDER_SIDE_STYLE + 2:
+            case PROP_BORDER_SIDE_STYLE + 3:
+                if (mTokenCount == 1) {
+                    parseSideStyle(css, property - PROP_BORDER_SIDE_STYLE, mTokenStarts[0], mTokenEnds[0]);
+                }
+                break;
+        }
+    }
+
+    /**
+     * border / border-top 等简写：宽度、线型、颜色，顺序不限
+     */
+    private void parseBorder(CharSequence css, int first, int count) {
+        float width = 0f;
+        int color = Color.BLACK;
+        int style = BorderDrawable.BORDER_STYLE_SOLID;
+        for (int i = 0; i < mTokenCount; i++) {
+            int start = mTokenStarts[i];
+            int end = mTokenEnds[i];
+            if (parseLength(css, start, end)) {
+                width = mNumber;
+            } else if (parseColor(css, start, end)) {
+                color = mColor;
+            } else if (parseStyle(css, start, end)) {
+                style = mStyle;
+            } else if (isNoneStyle(css, start, end)) {
+                width = 0f;
+            }
+        }
+        for (int i = first; i < first + count; i++) {
+            mWidths[i] = width;
+            mColors[i] = color;
+            mStyles[i] = style;
+        }
+    }
+
+    private void parseBoxStyles(CharSequence css) {
+        // 与 parseBoxLengths 相同的展开规则：上、右、下、左
+        for (int i = 0; i < mTokenCount; i++) {
+            if (!parseStyle(css, mTokenStarts[i], mTokenEnds[i]) && !isNoneStyle(css, mTokenStarts[i], mTokenEnds[i])) {
+                return;
+            }
+        }
+        for (int side = 0; side < 4; side++) {
+            int token = getBoxTokenIndex(side, mTokenCount);
+            parseSideStyle(css, side, mTokenStarts[token], mTokenEnds[token]);
+        }
+    }
+
+    // 一到四个值时每个方向使用第几个值：1 个全部相同，2 个为上下、左右，3 个为上、左右、下
+    private static int getBoxTokenIndex(int side, int count) {
+        if (side < count) {
+            return side;
+        }
+        // 缺少的左边与右边相同，其余与上边相同
+        return side == 3 && count > 1 ? 1 : 0;
+    }
+
+    // none 和 hidden 等于没有边框
+    private void parseSideStyle(CharSequence css, int side, int start, int end) {
+        if (parseStyle(css, start, end)) {
+            mStyles[side] = mStyle;
+        } else if (isNoneStyle(css, start, end)) {
+            mWidths[side] = 0f;
+        }
+    }
+
+    private boolean parseStyle(CharSequence css, int start, int end) {
+        for (int i = 0; i < STYLE_NAMES.length; i++) {
+            if (regionEquals(css, start, end, STYLE_NAMES[i])) {
+                mStyle = STYLE_VALUES[i];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNoneStyle(CharSequence css, int start, int end) {
+        return regionEquals(css, start, end, "none") || regionEquals(css, start, end, "hidden");
+    }
+
+    /**
+     * 一到四个值，按 CSS 的规则展开到四个方向，任何一个值无法解析则整条声明无效
+     */
+    private void parseBoxLengths(CharSequence css, float[] values) {
+        float a = 0, b = 0, c = 0, d = 0;
+        for (int i = 0; i < mTokenCount; i++) {
+            // border-radius 的椭圆部分（斜杠之后）忽略
+            if (regionEquals(css, mTokenStarts[i], mTokenEnds[i], "/")) {
+                break;
+            }
+            if (!parseLength(css, mTokenStarts[i], mTokenEnds[i])) {
+                return;
+            }
+            switch (i) {
+                case 0:
+                    a = b = c = d = mNumber;
+                    break;
+                case 1:
+                    b = d = mNumber;
+                    break;
+                case 2:
+                    c = mNumber;
+                    break;
+                case 3:
+                    d = mNumber;
+                    break;
+            }
+        }
+        values[0] = a;
+        values[1] = b;
+        values[2] = c;
+        values[3] = d;
+    }
+
+    private void parseBoxColors(CharSequence css) {
+        int a = 0, b = 0, c = 0, d = 0;
+        for (int i = 0; i < mTokenCount; i++) {
+            if (!parseColor(css, mTokenStarts[i], mTokenEnds[i])) {
+                return;
+            }
+            switch (i) {
+                case 0:
+                    a = b = c = d = mColor;
+                    break;
+                case 1:
+                    b = d = mColor;
+                    break;
+                case 2:
+                    c = mColor;
+                    break;
+                case 3:
+                    d = mColor;
+                    break;
+            }
+        }
+        mColors[0] = a;
+        mColors[1] = b;
+        mColors[2] = c;
+        mColors[3] = d;
+    }
+
+    /**
+     * 按空白拆分值，括号里的空白不拆分；超过四个分量或者没有分量返回 false
+     */
+    private boolean tokenize(CharSequence css, int start, int end) {
+        mTokenCount = 0;
+        int pos = start;
+        while (true) {
+            while (pos < end && isWhitespace(css.charAt(pos))) {
+                pos++;
+            }
+            if (pos >= end) {
+                break;
+            }
+            int tokenStart = pos;
+            int depth = 0;
+            while (pos < end) {
+                char c = css.charAt(pos);
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (depth == 0 && isWhitespace(c)) {
+                    break;
+                }
+                pos++;
+            }
+            if (regionEquals(css, tokenStart, pos, "!important")) {
+                continue;
+            }
+            if (mTokenCount == mTokenStarts.length) {
+                return false;
+            }
+            mTokenStarts[mTokenCount] = tokenStart;
+            mTokenEnds[mTokenCount] = pos;
+            mTokenCount++;
+        }
+        return mTokenCount > 0;
+    }
+
+    /**
+     * 解析不带单位或者以 px 为单位的长度，结果放在 mNumber
+     */
+    private boolean parseLength(CharSequence css, int start, int end) {
+        if (end - start > 2 && regionEquals(css, end - 2, end, "px")) {
+            end -= 2;
+        }
+        return parseNumber(css, start, end) && mNumber >= 0;
+    }
+
+    private boolean parseNumber(CharSequence css, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (css.charAt(pos) == '-' || css.charAt(pos) == '+')) {
+            negative = css.charAt(pos) == '-';
+            pos++;
+        }
+        double value = 0;
+        boolean hasDigits = false;
+        while (pos < end && isDigit(css.charAt(pos))) {
+            value = value * 10 + (css.charAt(pos) - '0');
+            hasDigits = true;
+            pos++;
+        }
+        if (pos < end && css.charAt(pos) == '.') {
+            pos++;
+            double scale = 0.1;
+            while (pos < end && isDigit(css.charAt(pos))) {
+                value += (css.charAt(pos) - '0') * scale;
+                scale /= 10;
+                hasDigits = true;
+                pos++;
+            }
+        }
+        if (!hasDigits || pos != end) {
+            return false;
+        }
+        mNumber = (float) (negative ? -value : value);
+        return true;
+    }
+
+    /**
+     * 支持 #rgb、#rgba、#rrggbb、#rrggbbaa、rgb()、rgba() 和常用的颜色名，结果放在 mColor
+     */
+    private boolean parseColor(CharSequence css, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        if (css.charAt(start) == '#') {
+            return parseHexColor(css, start + 1, end);
+        }
+        if (end - start > 5 && regionEquals(css, start, start + 5, "rgba(")) {
+            return parseRgbColor(css, start + 5, end);
+        }
+        if (end - start > 4 && regionEquals(css, start, start + 4, "rgb(")) {
+            return parseRgbColor(css, start + 4, end);
+        }
+        for (int i = 0; i < COLOR_NAMES.length; i++) {
+            if (regionEquals(css, start, end, COLOR_NAMES[i])) {
+                mColor = COLOR_VALUES[i];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean parseHexColor(CharSequence css, int start, int end) {
+        int length = end - start;
+        if (length != 3 && length != 4 && length != 6 && length != 8) {
+            return false;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(css.charAt(i), 16);
+            if (digit < 0) {
+                return false;
+            }
+            value = (value << 4) | digit;
+            // 简写形式每一位重复一次
+            if (length <= 4) {
+                value = (value << 4) | digit;
+            }
+        }
+        if (length == 3 || length == 6) {
+            mColor = 0xFF000000 | value;
+        } else {
+            // CSS 里透明度在最后
+            mColor = (value >>> 8) | (value << 24);
+        }
+        return true;
+    }
+
+    private boolean parseRgbColor(CharSequence css, int start, int end) {
+        if (css.charAt(end - 1) != ')') {
+            return false;
+        }
+        end--;
+        int alpha = 0xFF;
+        int rgb = 0;
+        int component = 0;
+        int pos = start;
+        while (pos <= end) {
+            int next = indexOf(css, ',', pos, end);
+            int componentStart = pos;
+            int componentEnd = next;
+            while (componentStart < componentEnd && isWhitespace(css.charAt(componentStart))) {
+                componentStart++;
+            }
+            while (componentEnd > componentStart && isWhitespace(css.charAt(componentEnd - 1))) {
+                componentEnd--;
+            }
+            if (!parseNumber(css, componentStart, componentEnd)) {
+                return false;
+            }
+            if (component < 3) {
+                rgb = (rgb << 8) | clamp(Math.round(mNumber));
+            } else if (component == 3) {
+                alpha = clamp(Math.round(mNumber * 255));
+            } else {
+                return false;
+            }
+            component++;
+            pos = next + 1;
+        }
+        if (component < 3) {
+            return false;
+        }
+        mColor = (alpha << 24) | rgb;
+        return true;
+    }
+
+    private static int findProperty(CharSequence css, int start, int end) {
+        while (start < end && isWhitespace(css.charAt(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(css.charAt(end - 1))) {
+            end--;
+        }
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            if (regionEquals(css, start, end, PROPERTIES[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(CharSequence css, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (css.charAt(i) == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    // 忽略大小写比较，关键字都是小写的
+    private static boolean regionEquals(CharSequence css, int start, int end, String keyword) {
+        if (end - start != keyword.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (Character.toLowerCase(css.charAt(i)) != keyword.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 0xFF ? 0xFF : value);
+    }
+}
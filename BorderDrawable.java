@@ -1,24 +1,49 @@
+import android.annotation.TargetApi;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.ColorFilter;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Outline;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.PointF;
+import android.graphics.PixelFormat;
 import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.RadialGradient;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.Region;
+import android.graphics.Shader;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
 //import android.graphics.drawable.InsetDrawable;
 import android.graphics.drawable.LayerDrawable;
 import android.graphics.drawable.NinePatchDrawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
 
 import javax.annotation.Nullable;
 
@@ -27,33 +52,170 @@ import javax.annotation.Nullable;
  */
 public class BorderDrawable extends Drawable {
 
+    // 光栅化成 NinePatchDrawable 绘制
+    public static final int RENDER_MODE_BITMAP = 0;
+    // 缓存路径，在 draw 的时候直接绘制
+    public static final int RENDER_MODE_DIRECT = 1;
+    // 根据样式选择开销更小的方式
+    public static final int RENDER_MODE_AUTO = 2;
+
+    // 背景着色器的类型
+    private static final int BACKGROUND_IMAGE = 0;
+    private static final int BACKGROUND_LINEAR_GRADIENT = 1;
+    private static final int BACKGROUND_RADIAL_GRADIENT = 2;
+
+    // 边框线型
+    public static final int BORDER_STYLE_SOLID = 0;
+    public static final int BORDER_STYLE_DASHED = 1;
+    public static final int BORDER_STYLE_DOTTED = 2;
+
+    // 自动模式下，位图超过这个大小就改为直接绘制
+    private static final int DIRECT_DRAW_MIN_BITMAP_BYTES = 64 * 64 * 4;
+
+    private static Executor sRasterizeExecutor;
+    // 批量预渲染使用的线程池，用到时才创建
+    private static ForkJoinPool sPrerenderPool;
+    private static volatile boolean sSoftwareRasterize = false;
+    private static Handler sMainHandler;
+
     Resources mResources;
     String mName;
 
     @Nullable
     private Drawable mDrawable;
     @Nullable
-    private Bitmap mBitmap;
-    private YASizeF mBitmapSize;
-    private Canvas mCanvas;
+    private NinePatchCache.Entry mCacheEntry;
+    // 使用 ALPHA_8 遮罩时，mCacheEntry 是边框的遮罩，这里是背景的遮罩
+    @Nullable
+    private NinePatchCache.Entry mBackgroundMaskEntry;
+    @Nullable
+    private NinePatchDrawable mBorderMaskDrawable;
+    @Nullable
+    private NinePatchDrawable mBackgroundMaskDrawable;
+    private int mBorderTint;
+    private int mBackgroundTint;
+    // 遮罩着色用的 SRC_IN 颜色过滤器，只用颜色的 RGB，颜色不变时复用
+    @Nullable
+    private PorterDuffColorFilter mBorderTintFilter;
+    @Nullable
+    private PorterDuffColorFilter mBackgroundTintFilter;
+    private int mBorderTintFilterColor;
+    private int mBackgroundTintFilterColor;
     private Rect mBounds = new Rect();
 
-    private FloatSpacing mBorderInsetsSpacing = new FloatSpacing();
-    private FloatSpacing mBorderRadiiSpacing = new FloatSpacing();
-    private ColorSpacing mBorderColorsSpacing = new ColorSpacing();
+    private final FloatSpacing mBorderInsetsSpacing = new FloatSpacing(EDGE_PARENTS, 0f);
+    private final FloatSpacing mBorderRadiiSpacing = new FloatSpacing(CORNER_PARENTS, 0f);
+    private final IntSpacing mBorderColorsSpacing = new IntSpacing(EDGE_PARENTS, Color.BLACK, true);
+    private final IntSpacing mBorderStylesSpacing = new IntSpacing(EDGE_PARENTS, BORDER_STYLE_SOLID, false);
+
+    private int mBackgroundColor = Color.TRANSPARENT;
+    private boolean mIsDirty = false;
+
+    private int mRenderMode = RENDER_MODE_BITMAP;
+    private int mAlpha = ALPHA_SOLID;
+    // 直接绘制时使用的样式和路径
+    @Nullable
+    private BorderStyle mDirectStyle;
+    private BorderPaths mBorderPaths;
+    private Paint mDrawPaint;
+
+    // 虚线和点线的平铺图案，样式变化时才重新创建
+    @Nullable
+    private BorderStyle mPatternStyle;
+    private final BitmapShader[] mPatternShaders = new BitmapShader[4];
+    // Matrix 和 Path 都持有 native 对象，大部分 BorderDrawable 用不到，用到时才创建
+    @Nullable
+    private Matrix mPatternMatrix;
+    private final RectF mPatternRect = new RectF();
+    // 每条边的梯形，图案裁剪到这里，不会画进相邻边的转角。样式或者尺寸变化时重新计算
+    @Nullable
+    private Path[] mPatternClips;
+    @Nullable
+    private BorderStyle mPatternClipStyle;
+    private float mPatternClipWidth;
+    private float mPatternClipHeight;
 
-    private Paint mPaint;
-    private Path mPath;
+    // 背景图片或者渐变，画在背景色之上，裁剪到内框
+    @Nullable
+    private Shader mBackgroundShader;
+    private int mBackgroundShaderType;
+    private int mBackgroundImageWidth;
+    private int mBackgroundImageHeight;
+    private float mBackgroundAngle;
+    private Paint mBackgroundPaint;
+    // 内框的路径和着色器的矩阵只在样式或者尺寸变化时重新计算
+    @Nullable
+    private BorderStyle mBackgroundPathStyle;
+    private final Rect mBackgroundPathBounds = new Rect();
+    private final BorderGeometry mBackgroundGeometry = new BorderGeometry();
+    @Nullable
+    private Path mBackgroundPath;
+    private final RectF mBackgroundRect = new RectF();
+    @Nullable
+    private Matrix mBackgroundMatrix;
 
-    private BorderInsets mBorderInsets;
-    private BorderColors mBorderColors;
-    private CornerRadii mCornerRadii;
+    // getTransparentRegion 的结果，样式和尺寸不变时直接返回
+    @Nullable
+    private Region mTransparentRegion;
+    @Nullable
+    private BorderStyle mTransparentRegionStyle;
+    private final Rect mTransparentRegionBounds = new Rect();
 
-    private CornerInsets mCornerInsets;
-    private BorderInsets mEdgeInsets;
+    // 圆角不相同时 getOutline 使用的路径，圆角和尺寸不变时不重新生成
+    @Nullable
+    private Path mOutlinePath;
+    private final float[] mOutlineRadii = new float[8];
+    private final RectF mOutlineRect = new RectF();
+    private final Rect mOutlineBounds = new Rect();
 
-    private int mBackgroundColor = Color.TRANSPARENT;
-    private boolean mIsDirty = false;
+    // 异步光栅化
+    private boolean mAsyncRasterize = false;
+    @Nullable
+    private FutureTask<Void> mPendingTask;
+    @Nullable
+    private BorderStyle mPendingStyle;
+    @Nullable
+    private GradientDrawable mPlaceholder;
+
+    // createContentClip 创建的前景
+    @Nullable
+    private BorderClipDrawable mContentClip;
+
+    // animateTo 的过渡动画，中间帧不光栅化，结束时才渲染目标样式
+    @Nullable
+    private BorderStyle mAnimationFrom;
+    @Nullable
+    private BorderStyle mAnimationTo;
+    // 最近一次计算的中间帧，还没有计算过或者没有动画时为 null
+    @Nullable
+    private FrameStyle mAnimationFrame;
+    private float mAnimationFraction;
+    private long mAnimationStartTime;
+    private long mAnimationDuration;
+    // 只有颜色变化并且正在使用 ALPHA_8 遮罩时，中间帧只修改遮罩的颜色，否则直接绘制路径
+    private boolean mAnimationTinting;
+    private BorderStyle.Builder mAnimationBuilder;
+    // 每一帧重新赋值的中间帧，不是 BorderStyle，不会用作缓存的键
+    @Nullable
+    private FrameStyle mFrameStyle;
+
+    // GradientDrawable 会持有圆角数组，所以每个实例各自保留一份，重复使用
+    private float[] mOutterRadii;
+    private float[] mInnerRadii;
+
+    // 批量修改的嵌套层数，大于 0 时 setter 只记录修改
+    private int mUpdateDepth = 0;
+    // 自动模式下，属性变化后在下一次 draw 之前调用一次 update()
+    private boolean mAutoUpdate = false;
+    private boolean mUpdateScheduled = false;
+    // draw 里调用 update() 时不需要再次重绘
+    private boolean mUpdatingInDraw = false;
+
+    // 当前的样式，以及最后一次渲染的样式
+    @Nullable
+    private BorderStyle mStyle;
+    @Nullable
+    private BorderStyle mRenderedStyle;
 
     public BorderDrawable(Resources res, String name) {
         super();
@@ -79,6 +241,22 @@ public class BorderDrawable extends Drawable {
         }
     }
 
+    /**
+     * 设置边框线型，BORDER_STYLE_SOLID、BORDER_STYLE_DASHED 或者 BORDER_STYLE_DOTTED
+     */
+    public void setBorderStyle(int spacingType, int borderStyle) {
+        checkBorderStyle(borderStyle);
+        if (mBorderStylesSpacing.set(spacingType, borderStyle)) {
+            dirty();
+        }
+    }
+
+    static void checkBorderStyle(int borderStyle) {
+        if (borderStyle < BORDER_STYLE_SOLID || borderStyle > BORDER_STYLE_DOTTED) {
+            throw new IllegalArgumentException("Unknown border style: " + borderStyle);
+        }
+    }
+
     public void setBackgroundColor(int color) {
         if (!colorEquals(color, mBackgroundColor)) {
             mBackgroundColor = color;
@@ -86,90 +264,427 @@ public class BorderDrawable extends Drawable {
         }
     }
 
-    private void fillProperty() {
-        if (mBorderInsets == null) {
-            mBorderInsets = new BorderInsets();
+    /**
+     * 背景图片，等比缩放到完全覆盖内框（与 background-size: cover 相同），超出内框的部分裁掉。
+     * 传入 null 去掉背景图片或者渐变
+     */
+    public void setBackgroundImage(@Nullable Bitmap bitmap) {
+        if (bitmap == null) {
+            setBackgroundShader(null, BACKGROUND_IMAGE);
+            return;
         }
-        mBorderInsets.set(
-                mBorderInsetsSpacing.get(TOP, 0f),
-                mBorderInsetsSpacing.get(RIGHT, 0f),
-                mBorderInsetsSpacing.get(BOTTOM, 0f),
-                mBorderInsetsSpacing.get(LEFT, 0f)
-        );
+        mBackgroundImageWidth = bitmap.getWidth();
+        mBackgroundImageHeight = bitmap.getHeight();
+        setBackgroundShader(new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP), BACKGROUND_IMAGE);
+    }
+
+    /**
+     * 线性渐变背景，角度与 CSS 的 linear-gradient 相同：0 为从下到上，90 为从左到右。
+     * positions 可以为 null，表示均匀分布
+     */
+    public void setBackgroundLinearGradient(float angle, int[] colors, @Nullable float[] positions) {
+        mBackgroundAngle = angle;
+        // 在单位长度上创建一次，尺寸变化时只修改矩阵
+        setBackgroundShader(new LinearGradient(0, 0, 1, 0, colors, positions, Shader.TileMode.CLAMP),
+                BACKGROUND_LINEAR_GRADIENT);
+    }
 
-        if (mBorderColors == null) {
-            mBorderColors = new BorderColors();
+    /**
+     * 径向渐变背景，以内框中心为圆心，与 CSS 的 radial-gradient(ellipse farthest-corner) 相同
+     */
+    public void setBackgroundRadialGradient(int[] colors, @Nullable float[] positions) {
+        setBackgroundShader(new RadialGradient(0, 0, 1, colors, positions, Shader.TileMode.CLAMP),
+                BACKGROUND_RADIAL_GRADIENT);
+    }
+
+    private void setBackgroundShader(@Nullable Shader shader, int type) {
+        mBackgroundShader = shader;
+        mBackgroundShaderType = type;
+        // 矩阵需要重新计算
+        mBackgroundPathStyle = null;
+        if (shader != null) {
+            if (mBackgroundPaint == null) {
+                mBackgroundPaint = new Paint();
+                mBackgroundPaint.setAntiAlias(true);
+                mBackgroundPaint.setFilterBitmap(true);
+                mBackgroundPaint.setColorFilter(getDrawPaint().getColorFilter());
+            }
+            mBackgroundPaint.setShader(shader);
+        } else if (mBackgroundPaint != null) {
+            mBackgroundPaint.setShader(null);
         }
-        mBorderColors.set(
-                mBorderColorsSpacing.get(TOP, Color.BLACK),
-                mBorderColorsSpacing.get(RIGHT, Color.BLACK),
-                mBorderColorsSpacing.get(BOTTOM, Color.BLACK),
-                mBorderColorsSpacing.get(LEFT, Color.BLACK)
-        );
+        super.invalidateSelf();
+    }
 
-        if (mCornerRadii == null) {
-            mCornerRadii = new CornerRadii();
+    /**
+     * 设置需要光栅化的样式的渲染方式，调用 update() 后生效
+     */
+    public void setRenderMode(int renderMode) {
+        if (mRenderMode != renderMode) {
+            mRenderMode = renderMode;
+            mRenderedStyle = null;
+            scheduleUpdate();
         }
-        mCornerRadii.set(
-                mBorderRadiiSpacing.get(TOP_LEFT, 0f),
-                mBorderRadiiSpacing.get(TOP_RIGHT, 0f),
-                mBorderRadiiSpacing.get(BOTTOM_RIGHT, 0f),
-                mBorderRadiiSpacing.get(BOTTOM_LEFT, 0f)
-        );
     }
 
-    private static final int ALPHA_SOLID = Color.alpha(Color.BLACK);
-    private static final float BORDER_THRESHOLD = .001f;
-    private static final int STRETCH_SIZE = 5;
+    public int getRenderMode() {
+        return mRenderMode;
+    }
 
-    public void update() {
-        if (!isDirty()) {
+    /**
+     * 开启后，需要光栅化的样式会在工作线程里生成位图，
+     * 生成之前先用近似的 GradientDrawable 占位
+     */
+    public void setAsyncRasterize(boolean asyncRasterize) {
+        mAsyncRasterize = asyncRasterize;
+    }
+
+    public boolean isAsyncRasterize() {
+        return mAsyncRasterize;
+    }
+
+    /**
+     * 设置异步光栅化使用的线程池，默认是一个后台线程
+     */
+    public static synchronized void setRasterizeExecutor(Executor executor) {
+        sRasterizeExecutor = executor;
+    }
+
+    /**
+     * 开启后光栅化不使用 Canvas 和 Path，改用纯 Java 的 SoftwareRasterizer 计算像素，
+     * 结果与 Canvas 绘制的差别在抗锯齿的边缘像素以内。对之后新生成的位图生效
+     */
+    public static void setSoftwareRasterize(boolean softwareRasterize) {
+        sSoftwareRasterize = softwareRasterize;
+    }
+
+    public static boolean isSoftwareRasterize() {
+        return sSoftwareRasterize;
+    }
+
+    static synchronized Executor getRasterizeExecutor() {
+        if (sRasterizeExecutor == null) {
+            sRasterizeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BorderDrawable-rasterize");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return sRasterizeExecutor;
+    }
+
+    /**
+     * 预先光栅化一批样式，放进共享的 NinePatchCache（设置了磁盘缓存时也会写入），
+     * 之后 update() 遇到这些样式时直接从缓存里取，不需要在主线程上光栅化。
+     * 样式先按实际需要的位图去重（只有颜色不同、使用 ALPHA_8 遮罩的样式共用遮罩），再并行生成。
+     * 不需要位图的样式会被忽略；生成的条目没有被引用，超出缓存大小时仍然会按 LRU 淘汰。
+     * LOLLIPOP 以下没有 ForkJoinPool，在异步光栅化的线程池里依次生成
+     */
+    public static Future<Void> prerender(Collection<BorderStyle> styles, final String name) {
+        LinkedHashMap<BorderStyle, Bitmap.Config> keys = new LinkedHashMap<BorderStyle, Bitmap.Config>();
+        for (BorderStyle style : styles) {
+            if (style == null || style.renderType != BorderStyle.RENDER_NINE_PATCH) {
+                continue;
+            }
+            if (style.useAlphaMask) {
+                addPrerenderKey(keys, style.getBorderMask(), Bitmap.Config.ALPHA_8);
+                addPrerenderKey(keys, style.getBackgroundMask(), Bitmap.Config.ALPHA_8);
+            } else {
+                addPrerenderKey(keys, style, Bitmap.Config.ARGB_8888);
+            }
+        }
+        final BorderStyle[] keyStyles = keys.keySet().toArray(new BorderStyle[keys.size()]);
+        final Bitmap.Config[] configs = keys.values().toArray(new Bitmap.Config[keys.size()]);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return getPrerenderPool().submit(new PrerenderTask(keyStyles, configs, 0, keyStyles.length, name));
+        }
+        // 不能用到 PrerenderTask，加载它需要 ForkJoin 的类
+        FutureTask<Void> future = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                prerenderRange(keyStyles, configs, 0, keyStyles.length, name);
+            }
+        }, null);
+        getRasterizeExecutor().execute(future);
+        return future;
+    }
+
+    private static void addPrerenderKey(Map<BorderStyle, Bitmap.Config> keys,
+                                        @Nullable BorderStyle style, Bitmap.Config config) {
+        // 已经在缓存里的就不用再排队了
+        if (style != null && !keys.containsKey(style) && !NinePatchCache.getInstance().contains(style)) {
+            keys.put(style, config);
+        }
+    }
+
+    /**
+     * 在当前线程依次生成 [start, end) 的样式，只是放进缓存，不持有引用
+     */
+    static void prerenderRange(BorderStyle[] styles, Bitmap.Config[] configs, int start, int end, String name) {
+        NinePatchCache cache = NinePatchCache.getInstance();
+        Rasterizer rasterizer = Rasterizer.get();
+        for (int i = start; i < end; i++) {
+            releaseEntry(rasterizer.obtain(cache, styles[i], name, configs[i]));
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static synchronized ForkJoinPool getPrerenderPool() {
+        if (sPrerenderPool == null) {
+            // 留一个核心给主线程
+            int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            sPrerenderPool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("BorderDrawable-prerender-" + thread.getPoolIndex());
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            }, null, false);
+        }
+        return sPrerenderPool;
+    }
+
+    static synchronized Handler getMainHandler() {
+        if (sMainHandler == null) {
+            sMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return sMainHandler;
+    }
+
+    /**
+     * 虚线和点线的图案占用的字节数，由 BorderMemory 计入总大小
+     */
+    static int getPatternTilesSize() {
+        return PatternTiles.size();
+    }
+
+    static void evictPatternTiles() {
+        PatternTiles.evictAll();
+    }
+
+    /**
+     * 开始批量修改，之后的 setter 只记录修改，到最外层的 applyUpdate() 时统一调用一次 update()。
+     * 可以嵌套调用
+     */
+    public void beginUpdate() {
+        mUpdateDepth++;
+    }
+
+    /**
+     * 结束批量修改，最外层的调用会应用期间所有的修改
+     */
+    public void applyUpdate() {
+        if (mUpdateDepth > 0) {
+            mUpdateDepth--;
+        }
+        if (mUpdateDepth == 0) {
+            update();
+        }
+    }
+
+    /**
+     * 开启后不需要手动调用 update()，属性变化后会请求重绘，并在下一次 draw 之前调用一次 update()，
+     * 连续的多次修改只会渲染一次
+     */
+    public void setAutoUpdate(boolean autoUpdate) {
+        mAutoUpdate = autoUpdate;
+        if (autoUpdate && (isDirty() || mStyle != mRenderedStyle)) {
+            scheduleUpdate();
+        }
+    }
+
+    public boolean isAutoUpdate() {
+        return mAutoUpdate;
+    }
+
+    private void scheduleUpdate() {
+        if (!mAutoUpdate || mUpdateDepth > 0 || mUpdateScheduled) {
+            return;
+        }
+        mUpdateScheduled = true;
+        super.invalidateSelf();
+    }
+
+    /**
+     * 直接设置解析好的样式，样式与当前的相同时直接返回，不需要再解析和判断
+     */
+    public void setStyle(BorderStyle style) {
+        if (style == mStyle && !isDirty()) {
             return;
         }
+        stopAnimation();
+        mStyle = style;
         mIsDirty = false;
-        fillProperty();
-        int backgroundAlpha = Color.alpha(mBackgroundColor);
-        // 有没有背景颜色
-        boolean hasBackground = backgroundAlpha > 0;
-        // 背景颜色是否为实心
-        boolean backgroundIsSolid = backgroundAlpha == ALPHA_SOLID;
-
-        // 是否有边框
-        boolean hasBorderInsets = mBorderInsets.top > BORDER_THRESHOLD ||
-                mBorderInsets.right > BORDER_THRESHOLD ||
-                mBorderInsets.bottom > BORDER_THRESHOLD ||
-                mBorderInsets.left > BORDER_THRESHOLD;
-
-        //边框宽度是否相等
-        boolean borderInsetsAreEqual = floatEquals(mBorderInsets.left, mBorderInsets.top) &&
-                floatEquals(mBorderInsets.left, mBorderInsets.right) &&
-                floatEquals(mBorderInsets.left, mBorderInsets.bottom);
-
-        //边框颜色是否相同
-        boolean borderColorsAreEqual = colorEquals(mBorderColors.left, mBorderColors.top) &&
-                colorEquals(mBorderColors.left, mBorderColors.right) &&
-                colorEquals(mBorderColors.left, mBorderColors.bottom);
-
-        // 左边框是否为实色
-        boolean borderLeftIsSolid = Color.alpha(mBorderColors.left) == ALPHA_SOLID;
-
-        // 是否有圆角
-        boolean hasCornerRadii = mCornerRadii.topLeft > BORDER_THRESHOLD ||
-                mCornerRadii.topRight > BORDER_THRESHOLD ||
-                mCornerRadii.bottomLeft > BORDER_THRESHOLD ||
-                mCornerRadii.bottomRight > BORDER_THRESHOLD;
+
+        mBorderInsetsSpacing.reset();
+        mBorderInsetsSpacing.set(TOP, style.topWidth);
+        mBorderInsetsSpacing.set(RIGHT, style.rightWidth);
+        mBorderInsetsSpacing.set(BOTTOM, style.bottomWidth);
+        mBorderInsetsSpacing.set(LEFT, style.leftWidth);
+
+        mBorderColorsSpacing.reset();
+        mBorderColorsSpacing.set(TOP, style.topColor);
+        mBorderColorsSpacing.set(RIGHT, style.rightColor);
+        mBorderColorsSpacing.set(BOTTOM, style.bottomColor);
+        mBorderColorsSpacing.set(LEFT, style.leftColor);
+
+        mBorderRadiiSpacing.reset();
+        mBorderRadiiSpacing.set(TOP_LEFT, style.topLeftRadius);
+        mBorderRadiiSpacing.set(TOP_RIGHT, style.topRightRadius);
+        mBorderRadiiSpacing.set(BOTTOM_RIGHT, style.bottomRightRadius);
+        mBorderRadiiSpacing.set(BOTTOM_LEFT, style.bottomLeftRadius);
+
+        mBorderStylesSpacing.reset();
+        mBorderStylesSpacing.set(TOP, style.topStyle);
+        mBorderStylesSpacing.set(RIGHT, style.rightStyle);
+        mBorderStylesSpacing.set(BOTTOM, style.bottomStyle);
+        mBorderStylesSpacing.set(LEFT, style.leftStyle);
+
+        mBackgroundColor = style.backgroundColor;
+        if (style != mRenderedStyle) {
+            scheduleUpdate();
+        }
+    }
+
+    /**
+     * 返回当前解析好的样式，可以保存下来在复用时传给 setStyle
+     */
+    public BorderStyle getStyle() {
+        if (isDirty() || mStyle == null) {
+            mIsDirty = false;
+            fillProperty();
+        }
+        return mStyle;
+    }
+
+    /**
+     * 最后一次 update() 使用的样式，还没有渲染过时为 null
+     */
+    @Nullable
+    BorderStyle getRenderedStyle() {
+        return mRenderedStyle;
+    }
+
+    /**
+     * 创建一个盖在内容上面的前景，用 outsideColor（通常是父容器的背景色）填充圆角外面的部分，
+     * 再画上圆角处的边框，看起来就像内容被圆角裁剪了一样，不需要 saveLayer 或者 clipPath。
+     * 只画四个角上的小块缓存位图，在不支持 Outline 裁剪的旧版本上也可以使用
+     */
+    public Drawable createContentClip(int outsideColor) {
+        // 同一个 BorderDrawable 的前景只保留最后创建的一个，颜色相同时直接返回
+        if (mContentClip == null || mContentClip.getOutsideColor() != outsideColor) {
+            if (mContentClip != null) {
+                mContentClip.trimTile();
+            }
+            mContentClip = new BorderClipDrawable(this, outsideColor);
+            // 前景的 draw 只画准备好的位图，已经渲染过的话现在就准备
+            if (mRenderedStyle != null) {
+                mContentClip.prepare(mRenderedStyle);
+            }
+        }
+        return mContentClip;
+    }
+
+    /**
+     * 从共享的缓存里取得样式对应的位图，没有的话在当前线程光栅化，引用计数已经加一
+     */
+    static NinePatchCache.Entry obtainCacheEntry(BorderStyle style, String name, Bitmap.Config config) {
+        return Rasterizer.get().obtain(NinePatchCache.getInstance(), style, name, config);
+    }
+
+    private void fillProperty() {
+        // Spacing 在 set 的时候已经算好了四个方向的值，这里直接读取
+        mStyle = Rasterizer.get().styleBuilder
+                .setBorderWidths(
+                        mBorderInsetsSpacing.get(TOP),
+                        mBorderInsetsSpacing.get(RIGHT),
+                        mBorderInsetsSpacing.get(BOTTOM),
+                        mBorderInsetsSpacing.get(LEFT))
+                .setBorderColors(
+                        mBorderColorsSpacing.get(TOP),
+                        mBorderColorsSpacing.get(RIGHT),
+                        mBorderColorsSpacing.get(BOTTOM),
+                        mBorderColorsSpacing.get(LEFT))
+                .setBorderRadii(
+                        mBorderRadiiSpacing.get(TOP_LEFT),
+                        mBorderRadiiSpacing.get(TOP_RIGHT),
+                        mBorderRadiiSpacing.get(BOTTOM_RIGHT),
+                        mBorderRadiiSpacing.get(BOTTOM_LEFT))
+                .setBorderStyles(
+                        mBorderStylesSpacing.get(TOP),
+                        mBorderStylesSpacing.get(RIGHT),
+                        mBorderStylesSpacing.get(BOTTOM),
+                        mBorderStylesSpacing.get(LEFT))
+                .setBackgroundColor(mBackgroundColor)
+                .build();
+    }
+
+    static final int ALPHA_SOLID = Color.alpha(Color.BLACK);
+    static final float BORDER_THRESHOLD = .001f;
+
+    // Xfermode 没有状态，可以全局共用
+    private static final PorterDuffXfermode XFERMODE_DST_IN = new PorterDuffXfermode(PorterDuff.Mode.DST_IN);
+    private static final PorterDuffXfermode XFERMODE_DST_OVER = new PorterDuffXfermode(PorterDuff.Mode.DST_OVER);
+    private static final PorterDuffXfermode XFERMODE_SRC = new PorterDuffXfermode(PorterDuff.Mode.SRC);
+
+    public void update() {
+        mUpdateScheduled = false;
+        if (isDirty()) {
+            mIsDirty = false;
+            fillProperty();
+        }
+        // 样式是驻留的，没有变化的话什么都不用做
+        BorderStyle style = mStyle;
+        if (style == null) {
+            return;
+        }
+        if (style == mRenderedStyle) {
+            // 圆角位图可能在内存紧张时被单独释放了，样式没变并且位图还在时 prepare 直接返回
+            if (mContentClip != null) {
+                mContentClip.prepare(style);
+            }
+            return;
+        }
+        mRenderedStyle = style;
+        mDirectStyle = null;
+        // 还没完成的光栅化结果已经过期了
+        cancelPendingRasterize();
+
+        BorderMetrics.Listener listener = BorderMetrics.getListener();
+        long startTime = listener != null ? System.nanoTime() : 0;
+        int tier = render(style);
+        if (listener != null) {
+            listener.onUpdate(tier, System.nanoTime() - startTime);
+        }
+        // 圆角位图与边框一起准备好，异步模式下在工作线程生成
+        if (mContentClip != null) {
+            mContentClip.prepare(style);
+        }
+    }
+
+    /**
+     * 按样式的渲染方式生成 mDrawable，返回最终使用的渲染方式（BorderMetrics.TIER_*）
+     */
+    private int render(BorderStyle style) {
 
         // 如果没有背景色，也没有边框的话，不需要设置背景渲染
-        // TODO 如果有圆角的话，内容需要 clip，不过安卓好像比较难实现
-        if (!hasBackground && !hasBorderInsets) {
+        // 有圆角时内容的裁剪见 createContentClip
+        if (style.renderType == BorderStyle.RENDER_NONE) {
             mDrawable = null;
             freeBitmap();
             invalidateSelf();
-            return;
+            return BorderMetrics.TIER_NONE;
         }
 
         // 如果有背景色，没有边框，没有圆角，只需要设置背景颜色就行
-        if (hasBackground && !hasBorderInsets && !hasCornerRadii) {
+        if (style.renderType == BorderStyle.RENDER_COLOR) {
             if (mDrawable instanceof ColorDrawable) {
                 ((ColorDrawable) mDrawable).setColor(mBackgroundColor);
             } else {
@@ -177,20 +692,17 @@ public class BorderDrawable extends Drawable {
             }
             freeBitmap();
             invalidateSelf();
-            return;
+            return BorderMetrics.TIER_COLOR;
         }
 
         // 如果没有圆角、边框宽度相等、边框颜色相同、
         // 边框颜色不透明或者没有背景色(因为 GradientDrawable 边框无法覆盖整个背景)，
         // 则可以使用 GradientDrawable 实现
-        if (!hasCornerRadii &&
-                borderInsetsAreEqual &&
-                borderColorsAreEqual &&
-                (borderLeftIsSolid || !hasBackground)) {
+        if (style.renderType == BorderStyle.RENDER_GRADIENT) {
 
             GradientDrawable gradientDrawable;
 
-            if (mDrawable instanceof GradientDrawable) {
+            if (mDrawable instanceof GradientDrawable && mDrawable != mPlaceholder) {
                 gradientDrawable = ((GradientDrawable) mDrawable);
             } else {
                 gradientDrawable = new GradientDrawable();
@@ -199,34 +711,24 @@ public class BorderDrawable extends Drawable {
 
             gradientDrawable.setGradientType(GradientDrawable.RECTANGLE);
             gradientDrawable.setColor(mBackgroundColor);
-            gradientDrawable.setStroke(mBorderInsets.ceilLeft(), mBorderColors.left);
+            gradientDrawable.setStroke((int) Math.ceil(style.leftWidth), style.leftColor);
             freeBitmap();
             invalidateSelf();
-            return;
+            return BorderMetrics.TIER_GRADIENT;
         }
 
-        // 外圆角
-        float[] outterRadii = new float[]{
-                mCornerRadii.topLeft, mCornerRadii.topLeft,
-                mCornerRadii.topRight, mCornerRadii.topRight,
-                mCornerRadii.bottomRight, mCornerRadii.bottomRight,
-                mCornerRadii.bottomLeft, mCornerRadii.bottomLeft
-        };
-
-        // 内圆角
-        float[] innerRadii = new float[]{
-                Math.max(0, mCornerRadii.topLeft - mBorderInsets.left),
-                Math.max(0, mCornerRadii.topLeft - mBorderInsets.top),
-                Math.max(0, mCornerRadii.topRight - mBorderInsets.right),
-                Math.max(0, mCornerRadii.topRight - mBorderInsets.top),
-                Math.max(0, mCornerRadii.bottomRight - mBorderInsets.right),
-                Math.max(0, mCornerRadii.bottomRight - mBorderInsets.bottom),
-                Math.max(0, mCornerRadii.bottomLeft - mBorderInsets.left),
-                Math.max(0, mCornerRadii.bottomLeft - mBorderInsets.bottom)};
+        Rasterizer rasterizer = Rasterizer.get();
+        rasterizer.prepare(style);
+        BorderInsets borderInsets = rasterizer.borderInsets;
 
         // 如果边框颜色相同且不透明、背景颜色不透明，
         // 则可以使用两个 GradientDrawable 重叠实现
-        if (borderColorsAreEqual && borderLeftIsSolid && backgroundIsSolid) {
+        if (style.renderType == BorderStyle.RENDER_LAYER) {
+            // 外圆角和内圆角
+            float[] outterRadii = copyRadii(rasterizer.outterRadii, mOutterRadii);
+            float[] innerRadii = copyRadii(rasterizer.innerRadii, mInnerRadii);
+            mOutterRadii = outterRadii;
+            mInnerRadii = innerRadii;
 
             GradientDrawable backgroundDrawable;
             GradientDrawable borderDrawable;
@@ -255,15 +757,15 @@ public class BorderDrawable extends Drawable {
 
             //边框层
             borderDrawable.setGradientType(GradientDrawable.RECTANGLE);
-            borderDrawable.setColor(mBorderColors.left);
+            borderDrawable.setColor(style.leftColor);
             borderDrawable.setCornerRadii(outterRadii);
 
             //背景层需要留出边框
             layerDrawable.setLayerInset(1,
-                    mBorderInsets.ceilLeft(),
-                    mBorderInsets.ceilTop(),
-                    mBorderInsets.ceilRight(),
-                    mBorderInsets.ceilBottom());
+                    borderInsets.ceilLeft(),
+                    borderInsets.ceilTop(),
+                    borderInsets.ceilRight(),
+                    borderInsets.ceilBottom());
 
             // FIXME 看看有没有更好的办法让 setLayerInset 生效
             // 因为 LayerDrawable 默认情况下只有 onBoundsChange 的时候才会应用 Inset 的改变
@@ -271,289 +773,384 @@ public class BorderDrawable extends Drawable {
 
             freeBitmap();
             invalidateSelf();
-            return;
+            return BorderMetrics.TIER_LAYER;
         }
 
         // 如果以上条件不满足，则需要生成 NinePatchDrawable
-        // 得到内部八个角弧形的矩形区域
-        if (mCornerInsets == null) {
-            mCornerInsets = new CornerInsets();
-        }
-        fillCornerInsets(mCornerInsets, mCornerRadii, mBorderInsets);
-        // 缩放图像的边框
-        if (mEdgeInsets == null) {
-            mEdgeInsets = new BorderInsets();
-        }
-        mEdgeInsets.set(mBorderInsets.top + Math.max(mCornerInsets.topLeft.height, mCornerInsets.topRight.height),
-                mBorderInsets.right + Math.max(mCornerInsets.bottomRight.width, mCornerInsets.topRight.width),
-                mBorderInsets.bottom + Math.max(mCornerInsets.bottomLeft.height, mCornerInsets.bottomRight.height),
-                mBorderInsets.left + Math.max(mCornerInsets.topLeft.width, mCornerInsets.bottomLeft.width));
-
-        // 缩放图像尺寸
-        YASizeF size = new YASizeF(
-                mEdgeInsets.left + STRETCH_SIZE + mEdgeInsets.right,
-                mEdgeInsets.top + STRETCH_SIZE + mEdgeInsets.bottom);
-
-        if (mPaint == null) {
-            mPaint = new Paint();
-            mPaint.setAntiAlias(true);
-        }
-        if (mPath == null) {
-            mPath = new Path();
-        }
-
-        // 图像大小相同的话，直接清屏
-        if (mBitmap != null && size.ceilEquals(mBitmapSize)) {
-            mPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
-            mCanvas.drawPaint(mPaint);
-            mPaint.setXfermode(null);
-        } else {
+
+        // 或者不生成位图，在 draw 的时候直接画路径
+        if (shouldDrawDirect(rasterizer, style)) {
+            mDrawable = null;
+            mDirectStyle = style;
             freeBitmap();
-            mBitmap = Bitmap.createBitmap(
-                    size.ceilWidth(),
-                    size.ceilHeight(),
-                    Bitmap.Config.ARGB_8888);
-            mCanvas = new Canvas(mBitmap);
-            mBitmapSize = size;
+            invalidateSelf();
+            return BorderMetrics.TIER_DIRECT;
         }
-        // 画边框
-        // 线段的起始点和结束点
-        PointF lineStart = new PointF();
-        //PointF lineEnd = new PointF();
-        // 椭圆所在的矩形区域
-        YARectF ellipseBounds = new YARectF();
-        // 与椭圆相交的两点
-        PointF points[] = new PointF[]{new PointF(), new PointF()};
 
-        // 内框的左上角
-        PointF topLeft = new PointF(
-                mBorderInsets.left,
-                mBorderInsets.top);
-        if (!mCornerInsets.topLeft.isEmpty()) {
-            ellipseBounds.setOriginAndSize(
-                    topLeft.x,
-                    topLeft.y,
-                    2 * mCornerInsets.topLeft.width,
-                    2 * mCornerInsets.topLeft.height);
-            lineStart.set(0, 0);
-
-            ellipseGetIntersectionsWithLine(ellipseBounds, lineStart, topLeft, points);
+        if (style.useAlphaMask) {
+            renderAlphaMasks(rasterizer, style);
+            return BorderMetrics.TIER_NINE_PATCH;
+        }
 
-            if (!Float.isNaN(points[1].x) && !Float.isNaN(points[1].y)) {
-                topLeft.set(points[1]);
+        // 先到共享缓存里找相同样式的位图
+        NinePatchCache cache = NinePatchCache.getInstance();
+        NinePatchCache.Entry entry = cache.acquire(style);
+        if (entry == null) {
+            // 只有颜色变了的话，在正在使用的位图上重绘变化的部分
+            if (repaintInPlace(rasterizer, style)) {
+                return BorderMetrics.TIER_NINE_PATCH;
             }
+            if (mAsyncRasterize) {
+                showPlaceholder(rasterizer, style);
+                rasterizeAsync(style);
+                return BorderMetrics.TIER_NINE_PATCH;
+            }
+            entry = rasterizer.rasterize(cache, style, mName, Bitmap.Config.ARGB_8888);
         }
+        setNinePatch(entry);
+        return BorderMetrics.TIER_NINE_PATCH;
+    }
 
-        // 内框的左下角
-        PointF bottomLeft = new PointF(
-                mBorderInsets.left,
-                size.height - mBorderInsets.bottom);
-        if (!mCornerInsets.bottomLeft.isEmpty()) {
-            ellipseBounds.setOriginAndSize(
-                    bottomLeft.x,
-                    bottomLeft.y - 2 * mCornerInsets.bottomLeft.height,
-                    2 * mCornerInsets.bottomLeft.width,
-                    2 * mCornerInsets.bottomLeft.height);
-            lineStart.set(0, size.height);
-
-            ellipseGetIntersectionsWithLine(ellipseBounds, lineStart, bottomLeft, points);
-
-            if (!Float.isNaN(points[1].x) && !Float.isNaN(points[1].y)) {
-                bottomLeft.set(points[1]);
-            }
+    private static float[] copyRadii(float[] src, @Nullable float[] dst) {
+        if (dst == null) {
+            dst = new float[src.length];
         }
+        System.arraycopy(src, 0, dst, 0, src.length);
+        return dst;
+    }
 
-        // 内框的右上角
-        PointF topRight = new PointF(
-                size.width - mBorderInsets.right,
-                mBorderInsets.top);
-        if (!mCornerInsets.topRight.isEmpty()) {
-            ellipseBounds.setOriginAndSize(
-                    topRight.x - 2 * mCornerInsets.topRight.width,
-                    topRight.y,
-                    2 * mCornerInsets.topRight.width,
-                    2 * mCornerInsets.topRight.height);
-            lineStart.set(size.width, 0);
+    private void setNinePatch(NinePatchCache.Entry entry) {
+        freeBitmap();
+        mCacheEntry = entry;
 
-            ellipseGetIntersectionsWithLine(ellipseBounds, lineStart, topRight, points);
+        mDrawable = new NinePatchDrawable(mResources, entry.ninePatch);
+        BorderMemory.register(this, entry);
 
-            if (!Float.isNaN(points[0].x) && !Float.isNaN(points[0].y)) {
-                topRight.set(points[0]);
-            }
+        invalidateSelf();
+    }
+
+    /**
+     * 边框和背景分别使用一张共享的 ALPHA_8 遮罩，用各自的颜色着色后叠加。
+     * 只有颜色变化时遮罩不变，只需要修改画笔的颜色
+     */
+    private void renderAlphaMasks(Rasterizer rasterizer, BorderStyle style) {
+        NinePatchCache cache = NinePatchCache.getInstance();
+        BorderStyle borderMask = style.getBorderMask();
+        BorderStyle backgroundMask = style.getBackgroundMask();
+        NinePatchCache.Entry borderEntry = borderMask != null ? cache.acquire(borderMask) : null;
+        NinePatchCache.Entry backgroundEntry = backgroundMask != null ? cache.acquire(backgroundMask) : null;
+        boolean missing = (borderMask != null && borderEntry == null) ||
+                (backgroundMask != null && backgroundEntry == null);
+        if (missing && mAsyncRasterize) {
+            releaseEntry(borderEntry);
+            releaseEntry(backgroundEntry);
+            showPlaceholder(rasterizer, style);
+            rasterizeAsync(style);
+            return;
+        }
+        if (borderMask != null && borderEntry == null) {
+            borderEntry = rasterizer.rasterize(cache, borderMask, mName, Bitmap.Config.ALPHA_8);
         }
+        if (backgroundMask != null && backgroundEntry == null) {
+            backgroundEntry = rasterizer.rasterize(cache, backgroundMask, mName, Bitmap.Config.ALPHA_8);
+        }
+        setAlphaMasks(style, borderEntry, backgroundEntry);
+    }
 
-        // 内框的右下角
-        PointF bottomRight = new PointF(
-                size.width - mBorderInsets.right,
-                size.height - mBorderInsets.bottom);
-        if (!mCornerInsets.bottomRight.isEmpty()) {
-            ellipseBounds.setOriginAndSize(
-                    bottomRight.x - 2 * mCornerInsets.bottomRight.width,
-                    bottomRight.y - 2 * mCornerInsets.bottomRight.height,
-                    2 * mCornerInsets.bottomRight.width,
-                    2 * mCornerInsets.bottomRight.height);
-            lineStart.set(size.width, size.height);
+    private void setAlphaMasks(BorderStyle style,
+                               @Nullable NinePatchCache.Entry borderEntry,
+                               @Nullable NinePatchCache.Entry backgroundEntry) {
+        mBorderTint = style.visibleBorderColor;
+        mBackgroundTint = style.backgroundColor;
+        if (mDrawable != null && mDrawable != mPlaceholder &&
+                (mBorderMaskDrawable != null || mBackgroundMaskDrawable != null) &&
+                borderEntry == mCacheEntry && backgroundEntry == mBackgroundMaskEntry) {
+            // 遮罩没变，新加的引用还回去，只换颜色
+            releaseEntry(borderEntry);
+            releaseEntry(backgroundEntry);
+            applyMaskTints();
+            invalidateSelf();
+            return;
+        }
 
-            ellipseGetIntersectionsWithLine(ellipseBounds, lineStart, bottomRight, points);
+        freeBitmap();
+        mCacheEntry = borderEntry;
+        mBackgroundMaskEntry = backgroundEntry;
+        if (borderEntry != null) {
+            mBorderMaskDrawable = new NinePatchDrawable(mResources, borderEntry.ninePatch);
+        }
+        if (backgroundEntry != null) {
+            mBackgroundMaskDrawable = new NinePatchDrawable(mResources, backgroundEntry.ninePatch);
+        }
+        if (mBorderMaskDrawable != null && mBackgroundMaskDrawable != null) {
+            // 与光栅化的顺序相同，背景在下面
+            mDrawable = new LayerDrawable(new Drawable[]{mBackgroundMaskDrawable, mBorderMaskDrawable});
+        } else {
+            mDrawable = mBorderMaskDrawable != null ? mBorderMaskDrawable : mBackgroundMaskDrawable;
+        }
+        if (mCacheEntry != null) {
+            BorderMemory.register(this, mCacheEntry);
+        }
+        if (mBackgroundMaskEntry != null) {
+            BorderMemory.register(this, mBackgroundMaskEntry);
+        }
+        applyMaskTints();
+        invalidateSelf();
+    }
 
-            if (!Float.isNaN(points[0].x) && !Float.isNaN(points[0].y)) {
-                bottomRight.set(points[0]);
+    // ALPHA_8 位图在 HWUI 的 GL 管线上（API 21-27）不使用画笔的颜色，会画成黑色，
+    // RGB 用 SRC_IN 的颜色过滤器加上去，透明度仍然来自画笔，setAlpha 会覆盖画笔颜色的透明度，所以在这里合并
+    private void applyMaskTints() {
+        if (mBorderMaskDrawable != null) {
+            int color = mBorderTint | 0xFF000000;
+            if (mBorderTintFilter == null || mBorderTintFilterColor != color) {
+                mBorderTintFilter = new PorterDuffColorFilter(color, PorterDuff.Mode.SRC_IN);
+                mBorderTintFilterColor = color;
             }
+            applyMaskTint(mBorderMaskDrawable, mBorderTintFilter, mBorderTint);
         }
-
-        // RIGHT
-        if (mBorderInsets.right > 0) {
-
-            mPath.moveTo(size.width, 0);
-            mPath.lineTo(topRight.x, topRight.y);
-            mPath.lineTo(bottomRight.x, bottomRight.y);
-            mPath.lineTo(size.width, size.height);
-            mPath.close();
-
-            mPaint.setColor(mBorderColors.right);
-            mCanvas.drawPath(mPath, mPaint);
-            mPath.reset();
+        if (mBackgroundMaskDrawable != null) {
+            int color = mBackgroundTint | 0xFF000000;
+            if (mBackgroundTintFilter == null || mBackgroundTintFilterColor != color) {
+                mBackgroundTintFilter = new PorterDuffColorFilter(color, PorterDuff.Mode.SRC_IN);
+                mBackgroundTintFilterColor = color;
+            }
+            applyMaskTint(mBackgroundMaskDrawable, mBackgroundTintFilter, mBackgroundTint);
         }
+    }
 
-        // BOTTOM
-        if (mBorderInsets.bottom > 0) {
-
-            mPath.moveTo(0, size.height);
-            mPath.lineTo(bottomLeft.x, bottomLeft.y);
-            mPath.lineTo(bottomRight.x, bottomRight.y);
-            mPath.lineTo(size.width, size.height);
-            mPath.close();
+    private void applyMaskTint(NinePatchDrawable mask, ColorFilter tintFilter, int tint) {
+        // 画笔的颜色在软件绘制时仍然有效
+        setPaintColor(mask.getPaint(), tint, mAlpha);
+        ColorFilter colorFilter = mDrawPaint != null ? mDrawPaint.getColorFilter() : null;
+        // 颜色过滤器不能叠加，调用过 setColorFilter 时以它为准，这时遮罩的颜色只靠画笔
+        mask.setColorFilter(colorFilter != null ? colorFilter : tintFilter);
+        mask.invalidateSelf();
+    }
 
-            mPaint.setColor(mBorderColors.bottom);
-            mCanvas.drawPath(mPath, mPaint);
-            mPath.reset();
+    static void releaseEntry(@Nullable NinePatchCache.Entry entry) {
+        if (entry != null) {
+            NinePatchCache.getInstance().release(entry);
         }
+    }
 
-        // LEFT
-        if (mBorderInsets.left > 0) {
-
-            mPath.moveTo(0, 0);
-            mPath.lineTo(topLeft.x, topLeft.y);
-            mPath.lineTo(bottomLeft.x, bottomLeft.y);
-            mPath.lineTo(0, size.height);
-            mPath.close();
-
-            mPaint.setColor(mBorderColors.left);
-            mCanvas.drawPath(mPath, mPaint);
-            mPath.reset();
+    private boolean repaintInPlace(Rasterizer rasterizer, BorderStyle style) {
+        NinePatchCache.Entry entry = mCacheEntry;
+        // 遮罩是共享的，而且没有颜色
+        if (entry == null || entry.style == null || entry.bitmap.getConfig() != Bitmap.Config.ARGB_8888 ||
+                !entry.style.hasSameGeometry(style)) {
+            return false;
+        }
+        BorderStyle from = entry.style;
+        // 位图被别的 BorderDrawable 共享时不能修改
+        if (!NinePatchCache.getInstance().rekey(entry, style)) {
+            return false;
         }
+        // 几何信息、chunk 和 NinePatchDrawable 都不变
+        rasterizer.repaint(entry.bitmap, from, style);
+        BorderMetrics.notifyEvent(BorderMetrics.EVENT_REPAINT);
+        // 与新光栅化的位图一样写入磁盘缓存，下次启动时新样式也能命中
+        NinePatchDiskCache diskCache = NinePatchCache.getInstance().getDiskCache();
+        if (diskCache != null) {
+            diskCache.store(style, entry.bitmap, entry.chunk);
+        }
+        invalidateSelf();
+        return true;
+    }
 
-        // TOP
-        if (mBorderInsets.top > 0) {
+    private void showPlaceholder(Rasterizer rasterizer, BorderStyle style) {
+        if (mPlaceholder == null) {
+            mPlaceholder = new GradientDrawable();
+            mPlaceholder.setGradientType(GradientDrawable.RECTANGLE);
+        }
+        mOutterRadii = copyRadii(rasterizer.outterRadii, mOutterRadii);
+        mPlaceholder.setCornerRadii(mOutterRadii);
+        mPlaceholder.setColor(style.backgroundColor);
+        mPlaceholder.setStroke(rasterizer.borderInsets.ceilLeft(), style.leftColor);
+        mDrawable = mPlaceholder;
+        freeBitmap();
+        invalidateSelf();
+    }
 
-            mPath.moveTo(0, 0);
-            mPath.lineTo(topLeft.x, topLeft.y);
-            mPath.lineTo(topRight.x, topRight.y);
-            mPath.lineTo(size.width, 0);
-            mPath.close();
+    private void rasterizeAsync(final BorderStyle style) {
+        final String name = mName;
+        mPendingStyle = style;
+        mPendingTask = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                NinePatchCache cache = NinePatchCache.getInstance();
+                Rasterizer rasterizer = Rasterizer.get();
+                final NinePatchCache.Entry result;
+                final NinePatchCache.Entry backgroundResult;
+                if (style.useAlphaMask) {
+                    result = rasterizer.obtain(cache, style.getBorderMask(), name, Bitmap.Config.ALPHA_8);
+                    backgroundResult = rasterizer.obtain(cache, style.getBackgroundMask(), name, Bitmap.Config.ALPHA_8);
+                } else {
+                    result = rasterizer.obtain(cache, style, name, Bitmap.Config.ARGB_8888);
+                    backgroundResult = null;
+                }
+                getMainHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRasterized(style, result, backgroundResult);
+                    }
+                });
+            }
+        }, null);
+        getRasterizeExecutor().execute(mPendingTask);
+    }
 
-            mPaint.setColor(mBorderColors.top);
-            mCanvas.drawPath(mPath, mPaint);
-            mPath.reset();
+    private void onRasterized(BorderStyle style,
+                              @Nullable NinePatchCache.Entry entry,
+                              @Nullable NinePatchCache.Entry backgroundEntry) {
+        if (style != mPendingStyle) {
+            // 样式已经变了，位图留在缓存里给别人用
+            releaseEntry(entry);
+            releaseEntry(backgroundEntry);
+            return;
         }
+        mPendingStyle = null;
+        mPendingTask = null;
+        if (style.useAlphaMask) {
+            setAlphaMasks(style, entry, backgroundEntry);
+        } else {
+            setNinePatch(entry);
+        }
+    }
 
-        // 只有在内部有圆角的情况下需要抠出圆角
-        if (mCornerInsets.hasCornerInsets()) {
-            // 抠出内边 DST_IN
-            // 内框范围
-            RectF innerRect = new RectF(
-                    mBorderInsets.left,
-                    mBorderInsets.top,
-                    size.width - mBorderInsets.right,
-                    size.height - mBorderInsets.bottom);
+    private void cancelPendingRasterize() {
+        if (mPendingTask != null) {
+            mPendingTask.cancel(false);
+            mPendingTask = null;
+        }
+        mPendingStyle = null;
+    }
 
+    private boolean shouldDrawDirect(Rasterizer rasterizer, BorderStyle style) {
+        // 直接绘制需要 Path.op
+        if (mRenderMode == RENDER_MODE_BITMAP || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return false;
+        }
+        // 虚线和点线依赖九宫格的拉伸区域，总是光栅化
+        if (style.hasPatternedSides) {
+            return false;
+        }
+        if (mRenderMode == RENDER_MODE_DIRECT) {
+            return true;
+        }
+        // 小位图在缓存里共享，开销很小；大圆角的位图分配和纹理上传比直接画路径更贵
+        return rasterizer.size.ceilWidth() * rasterizer.size.ceilHeight() * 4 >= DIRECT_DRAW_MIN_BITMAP_BYTES;
+    }
 
-            mPath.addRoundRect(innerRect, innerRadii, Path.Direction.CW);
-            mPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
-            mPaint.setAlpha(0);
-            mCanvas.drawPath(mPath, mPaint);
-            mPaint.setAlpha(ALPHA_SOLID);
-            mPaint.setXfermode(null);
-            mPath.reset();
+    /**
+     * 把原始的属性表（包括没有展开的 ALL、VERTICAL 等）按固定格式写入 buffer，占 STYLE_RECORD_SIZE 字节。
+     * 格式：版本(1) 宽度/圆角/颜色的已定义掩码(各 1) 宽度(7 x u16) 圆角(7 x u16) 颜色(7 x i32) 背景色(i32)
+     * 线型(i32，每个方向 2 位，高 16 位为已定义掩码)，长度按 1/16 像素量化，统一使用大端字节序
+     */
+    public void writeStyle(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            buffer.put(STYLE_RECORD_VERSION);
+            buffer.put((byte) mBorderInsetsSpacing.getDefinedMask());
+            buffer.put((byte) mBorderRadiiSpacing.getDefinedMask());
+            buffer.put((byte) mBorderColorsSpacing.getDefinedMask());
+            mBorderInsetsSpacing.writeTo(buffer);
+            mBorderRadiiSpacing.writeTo(buffer);
+            mBorderColorsSpacing.writeTo(buffer);
+            buffer.putInt(mBackgroundColor);
+            mBorderStylesSpacing.writePackedTo(buffer);
+        } finally {
+            buffer.order(order);
         }
+    }
 
-        // 有背景时，在边框后面绘制背景 DST_OVER
-        if (hasBackground) {
-            mPaint.setColor(mBackgroundColor);
-            mPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OVER));
-            mCanvas.drawPaint(mPaint);
-            mPaint.setXfermode(null);
+    /**
+     * 从 buffer 读取 writeStyle 写入的记录，直接填入属性表，之后需要 update() 生效。
+     * 版本或者线型不合法时抛出 IllegalArgumentException，不修改任何属性
+     */
+    public void readStyle(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            int start = buffer.position();
+            byte version = buffer.get();
+            if (version != STYLE_RECORD_VERSION && version != STYLE_RECORD_VERSION_NO_STYLES) {
+                throw new IllegalArgumentException("Unsupported style record version: " + version);
+            }
+            if (version == STYLE_RECORD_VERSION) {
+                // 线型在记录的最后，先检查
+                IntSpacing.checkPacked(buffer.getInt(start + STYLE_RECORD_SIZE - 4));
+            }
+            int insetsMask = buffer.get() & SPACING_DEFINED_MASK;
+            int radiiMask = buffer.get() & SPACING_DEFINED_MASK;
+            int colorsMask = buffer.get() & SPACING_DEFINED_MASK;
+            mBorderInsetsSpacing.readFrom(buffer, insetsMask);
+            mBorderRadiiSpacing.readFrom(buffer, radiiMask);
+            mBorderColorsSpacing.readFrom(buffer, colorsMask);
+            mBackgroundColor = buffer.getInt();
+            if (version == STYLE_RECORD_VERSION_NO_STYLES) {
+                mBorderStylesSpacing.reset();
+            } else {
+                mBorderStylesSpacing.readPackedFrom(buffer);
+            }
+        } finally {
+            buffer.order(order);
         }
+        dirty();
+    }
 
-        // 如果有圆角，抠出外框
-        if (hasCornerRadii) {
-            // 外框范围
-            RectF outterRect = new RectF(0, 0, size.width, size.height);
+    /**
+     * 解析 CSS 声明并设置为当前样式，相同的声明字符串只会解析一次，见 BorderCssParser
+     */
+    public void setCssText(CharSequence css) {
+        setStyle(BorderCssParser.parse(css));
+    }
 
-            Bitmap clipImg = Bitmap.createBitmap(
-                    size.ceilWidth(),
-                    size.ceilHeight(),
-                    Bitmap.Config.ARGB_4444);
+    public String cssText() {
+        StringBuilder builder = new StringBuilder(512);
+        appendDeclaration(builder, "border-top-width:", mBorderInsetsSpacing.get(TOP));
+        appendDeclaration(builder, "border-right-width:", mBorderInsetsSpacing.get(RIGHT));
+        appendDeclaration(builder, "border-bottom-width:", mBorderInsetsSpacing.get(BOTTOM));
+        appendDeclaration(builder, "border-left-width:", mBorderInsetsSpacing.get(LEFT));
+        appendColorDeclaration(builder, "border-top-color:", mBorderColorsSpacing.get(TOP));
+        appendColorDeclaration(builder, "border-right-color:", mBorderColorsSpacing.get(RIGHT));
+        appendColorDeclaration(builder, "border-bottom-color:", mBorderColorsSpacing.get(BOTTOM));
+        appendColorDeclaration(builder, "border-left-color:", mBorderColorsSpacing.get(LEFT));
+        appendStyleDeclaration(builder, "border-top-style:", mBorderStylesSpacing.get(TOP));
+        appendStyleDeclaration(builder, "border-right-style:", mBorderStylesSpacing.get(RIGHT));
+        appendStyleDeclaration(builder, "border-bottom-style:", mBorderStylesSpacing.get(BOTTOM));
+        appendStyleDeclaration(builder, "border-left-style:", mBorderStylesSpacing.get(LEFT));
+        appendDeclaration(builder, "border-top-left-radius:", mBorderRadiiSpacing.get(TOP_LEFT));
+        appendDeclaration(builder, "border-top-right-radius:", mBorderRadiiSpacing.get(TOP_RIGHT));
+        appendDeclaration(builder, "border-bottom-right-radius:", mBorderRadiiSpacing.get(BOTTOM_RIGHT));
+        builder.append("border-bottom-left-radius:").append(mBorderRadiiSpacing.get(BOTTOM_LEFT)).append(';');
+        return builder.toString();
+    }
 
-            Canvas clipCanvas = new Canvas(clipImg);
+    private static void appendDeclaration(StringBuilder builder, String name, float value) {
+        builder.append(name).append(value).append(";\n");
+    }
 
-            mPath.addRoundRect(outterRect, outterRadii, Path.Direction.CW);
-            mPaint.setColor(Color.BLACK);
-            clipCanvas.drawPath(mPath, mPaint);
+    private static final String[] BORDER_STYLE_NAMES = new String[]{"solid", "dashed", "dotted"};
 
-            mPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
-            mCanvas.drawBitmap(clipImg, 0, 0, mPaint);
-            mPaint.setXfermode(null);
-            mPath.reset();
-            clipImg.recycle();
+    // 实线是默认值，不输出，没有虚线和点线时与原来的输出相同
+    private static void appendStyleDeclaration(StringBuilder builder, String name, int borderStyle) {
+        if (borderStyle == BORDER_STYLE_SOLID) {
+            return;
         }
-
-        /*
-        // 测试用的。绘制拉伸区域
-        paint.setXfermode(null);
-        paint.setColor(Color.YELLOW);
-        mCanvas.drawRect(
-                mEdgeInsets.ceilLeft(),
-                mEdgeInsets.ceilTop(),
-                (int) size.width - mEdgeInsets.ceilRight(),
-                (int) size.height - mEdgeInsets.ceilBottom(),
-                paint);
-        //*/
-
-        //mPath.reset();
-        //mPaint.reset();
-
-        //构造 NinePatchDrawable
-        ByteBuffer buffer = getByteBuffer(
-                mEdgeInsets.ceilTop(),
-                (int) size.width - mEdgeInsets.ceilRight(),
-                (int) size.height - mEdgeInsets.ceilBottom(),
-                mEdgeInsets.ceilLeft());
-
-
-        mDrawable = new NinePatchDrawable(
-                mResources,
-                mBitmap,
-                buffer.array(),
-                new Rect(),
-                mName);
-
-        invalidateSelf();
+        builder.append(name).append(BORDER_STYLE_NAMES[borderStyle]).append(";\n");
     }
 
-    public String cssText() {
-        return "border-top-width:" + mBorderInsetsSpacing.get(TOP, 0f) + ";\n" +
-                "border-right-width:" + mBorderInsetsSpacing.get(RIGHT, 0f) + ";\n" +
-                "border-bottom-width:" + mBorderInsetsSpacing.get(BOTTOM, 0f) + ";\n" +
-                "border-left-width:" + mBorderInsetsSpacing.get(LEFT, 0f) + ";\n" +
-                "border-top-color:" + String.format("#%06X", (0xFFFFFF & mBorderColorsSpacing.get(TOP, Color.BLACK))) + ";\n" +
-                "border-right-color:" + String.format("#%06X", (0xFFFFFF & mBorderColorsSpacing.get(RIGHT, Color.BLACK))) + ";\n" +
-                "border-bottom-color:" + String.format("#%06X", (0xFFFFFF & mBorderColorsSpacing.get(BOTTOM, Color.BLACK))) + ";\n" +
-                "border-left-color:" + String.format("#%06X", (0xFFFFFF & mBorderColorsSpacing.get(LEFT, Color.BLACK))) + ";\n" +
-                "border-top-left-radius:" + mBorderRadiiSpacing.get(TOP_LEFT, 0f) + ";\n" +
-                "border-top-right-radius:" + mBorderRadiiSpacing.get(TOP_RIGHT, 0f) + ";\n" +
-                "border-bottom-right-radius:" + mBorderRadiiSpacing.get(BOTTOM_RIGHT, 0f) + ";\n" +
-                "border-bottom-left-radius:" + mBorderRadiiSpacing.get(BOTTOM_LEFT, 0f) + ";";
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    // 与 String.format("#%06X", 0xFFFFFF & color) 的结果相同
+    private static void appendColorDeclaration(StringBuilder builder, String name, int color) {
+        builder.append(name).append('#');
+        for (int shift = 20; shift >= 0; shift -= 4) {
+            builder.append(HEX_DIGITS[(color >> shift) & 0xF]);
+        }
+        builder.append(";\n");
     }
 
     private static final int NO_COLOR = 0x00000001;
@@ -600,55 +1197,33 @@ public class BorderDrawable extends Drawable {
         return buffer;
     }
 
-    private static void fillCornerInsets(CornerInsets cornerInsets, CornerRadii cornerRadii, BorderInsets edgeInsets) {
-        cornerInsets.set(
-                Math.max(0, cornerRadii.topLeft - edgeInsets.left),
-                Math.max(0, cornerRadii.topLeft - edgeInsets.top),
-                Math.max(0, cornerRadii.topRight - edgeInsets.right),
-                Math.max(0, cornerRadii.topRight - edgeInsets.top),
-                Math.max(0, cornerRadii.bottomLeft - edgeInsets.left),
-                Math.max(0, cornerRadii.bottomLeft - edgeInsets.bottom),
-                Math.max(0, cornerRadii.bottomRight - edgeInsets.right),
-                Math.max(0, cornerRadii.bottomRight - edgeInsets.bottom)
-        );
-    }
-
-    private static void ellipseGetIntersectionsWithLine(RectF ellipseBounds,
-                                                        PointF lineStart,
-                                                        PointF lineEnd,
-                                                        PointF[] intersections) {
-        PointF ellipseCenter = new PointF(
-                ellipseBounds.centerX(),
-                ellipseBounds.centerY());
-
-        lineStart.x -= ellipseCenter.x;
-        lineStart.y -= ellipseCenter.y;
-        lineEnd.x -= ellipseCenter.x;
-        lineEnd.y -= ellipseCenter.y;
-
-        float m = (lineEnd.y - lineStart.y) / (lineEnd.x - lineStart.x);
-        float a = ellipseBounds.width() / 2;
-        float b = ellipseBounds.height() / 2;
-        float c = lineStart.y - m * lineStart.x;
-        float A = (b * b + a * a * m * m);
-        float B = 2 * a * a * c * m;
-        float D = (float) Math.sqrt((a * a * (b * b - c * c)) / A + Math.pow(B / (2 * A), 2));
-
-        float x_ = -B / (2 * A);
-        float x1 = x_ + D;
-        float x2 = x_ - D;
-        float y1 = m * x1 + c;
-        float y2 = m * x2 + c;
-
-        intersections[0].set(x1 + ellipseCenter.x, y1 + ellipseCenter.y);
-        intersections[1].set(x2 + ellipseCenter.x, y2 + ellipseCenter.y);
+    private void freeBitmap() {
+        // 位图由缓存统一回收，这里只释放引用
+        BorderMemory.unregister(this, mCacheEntry);
+        BorderMemory.unregister(this, mBackgroundMaskEntry);
+        releaseEntry(mCacheEntry);
+        releaseEntry(mBackgroundMaskEntry);
+        mCacheEntry = null;
+        mBackgroundMaskEntry = null;
+        mBorderMaskDrawable = null;
+        mBackgroundMaskDrawable = null;
     }
 
-    private void freeBitmap() {
-        if (mBitmap != null) {
-            mBitmap.recycle();
+    /**
+     * 内存紧张时由 BorderMemory 调用，释放位图，下一次 draw 时重新渲染
+     */
+    void trimBitmap() {
+        if (mContentClip != null && mContentClip.trimTile()) {
+            // 下一次 draw 时在 update 里重新准备
+            mUpdateScheduled = true;
+        }
+        if (mCacheEntry == null && mBackgroundMaskEntry == null) {
+            return;
         }
-        mBitmapSize = null;
+        freeBitmap();
+        mDrawable = null;
+        mRenderedStyle = null;
+        mUpdateScheduled = true;
     }
 
     private boolean isDirty() {
@@ -656,7 +1231,9 @@ public class BorderDrawable extends Drawable {
     }
 
     private void dirty() {
+        stopAnimation();
         mIsDirty = true;
+        scheduleUpdate();
     }
 
     @Override
@@ -673,7 +1250,9 @@ public class BorderDrawable extends Drawable {
         if (mDrawable != null) {
             mDrawable.setBounds(mBounds);
         }
-        super.invalidateSelf();
+        if (!mUpdatingInDraw) {
+            super.invalidateSelf();
+        }
     }
 
     //private int count = 0;
@@ -687,60 +1266,1401 @@ public class BorderDrawable extends Drawable {
         canvas.drawText("" + ++count, 300, 300, paint);
         System.out.println(count);
         */
-        if (mDrawable != null) {
+        if (mUpdateScheduled) {
+            mUpdatingInDraw = true;
+            try {
+                update();
+            } finally {
+                mUpdatingInDraw = false;
+            }
+        }
+        FrameStyle frame = mAnimationTo != null ? nextAnimationFrame() : null;
+        BorderStyle style = mRenderedStyle;
+        boolean drawFrame = frame != null && !mAnimationTinting;
+        if (drawFrame) {
+            // 虚线和点线在过渡时按实线绘制
+            drawDirect(canvas, frame);
+        } else if (mDirectStyle != null) {
+            drawDirect(canvas, mDirectStyle);
+        } else if (mDrawable != null) {
             mDrawable.draw(canvas);
+            if (style != null && style.hasPatternedSides && mDrawable != mPlaceholder) {
+                // 着色的中间帧几何信息与渲染的样式相同，只有颜色来自中间帧
+                drawPatternedSides(canvas, style, frame);
+            }
+        }
+        // 背景图片在内框里，不会与边框重叠，放在最后画
+        if (mBackgroundShader != null) {
+            if (drawFrame) {
+                drawBackgroundShader(canvas, frame);
+            } else if (style != null) {
+                drawBackgroundShader(canvas, style);
+            }
         }
     }
 
-    @Override
-    public void setAlpha(int alpha) {
-        if (mDrawable != null) {
+    /**
+     * 从当前的样式过渡到 target，duration 毫秒之后停在 target 上，只在这时光栅化一次。
+     * 中间帧在 KITKAT 以上直接绘制路径；只有颜色变化并且使用 ALPHA_8 遮罩时，只修改遮罩的颜色。
+     * 两种方式都不能用时直接切换到 target。轮廓（getOutline）也随中间帧变化。动画过程中修改属性会停止动画
+     */
+    public void animateTo(BorderStyle target, long duration) {
+        // 动画还没结束时从当前帧开始，中间帧不是 BorderStyle，按当前的进度取得对应的样式
+        BorderStyle from = null;
+        if (mAnimationTo != null) {
+            from = getAnimationBuilder().setInterpolated(mAnimationFrom, mAnimationTo, mAnimationFraction).build();
+        }
+        stopAnimation();
+        if (from == null) {
+            from = getStyle();
+        }
+        if (from == null || from == target || duration <= 0) {
+            setStyle(target);
+            update();
+            return;
+        }
+        boolean tinting = canAnimateTint(from, target);
+        // 直接绘制需要 Path.op
+        if (!tinting && Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            setStyle(target);
+            update();
+            return;
+        }
+        // 还没渲染的修改由动画接管，不需要再 update
+        mUpdateScheduled = false;
+        mAnimationFrom = from;
+        mAnimationTo = target;
+        mAnimationFraction = 0;
+        mAnimationTinting = tinting;
+        mAnimationStartTime = SystemClock.uptimeMillis();
+        mAnimationDuration = duration;
+        super.invalidateSelf();
+    }
+
+    public boolean isAnimating() {
+        return mAnimationTo != null;
+    }
+
+    /**
+     * 立即结束动画，停在目标样式上
+     */
+    public void endAnimation() {
+        BorderStyle target = mAnimationTo;
+        if (target == null) {
+            return;
+        }
+        stopAnimation();
+        setStyle(target);
+        update();
+    }
+
+    // 停止动画，显示最后一次渲染的样式
+    private void stopAnimation() {
+        if (mAnimationTo == null) {
+            return;
+        }
+        mAnimationFrom = null;
+        mAnimationTo = null;
+        mAnimationFrame = null;
+        BorderStyle rendered = mRenderedStyle;
+        if (mAnimationTinting && rendered != null) {
+            mBorderTint = rendered.visibleBorderColor;
+            mBackgroundTint = rendered.backgroundColor;
+            applyMaskTints();
+        }
+        mAnimationTinting = false;
+        invalidateSelf();
+    }
+
+    private BorderStyle.Builder getAnimationBuilder() {
+        if (mAnimationBuilder == null) {
+            mAnimationBuilder = new BorderStyle.Builder();
+        }
+        return mAnimationBuilder;
+    }
+
+    /**
+     * 中间帧的遮罩与正在显示的遮罩相同，可见的边和背景都不变，插值只改变颜色
+     */
+    private boolean canAnimateTint(BorderStyle from, BorderStyle to) {
+        BorderStyle rendered = mRenderedStyle;
+        if (rendered == null || !rendered.useAlphaMask || !from.useAlphaMask || !to.useAlphaMask ||
+                mDrawable == null || mDrawable == mPlaceholder ||
+                (mBorderMaskDrawable == null && mBackgroundMaskDrawable == null)) {
+            return false;
+        }
+        BorderStyle borderMask = rendered.getBorderMask();
+        BorderStyle backgroundMask = rendered.getBackgroundMask();
+        return from.getBorderMask() == borderMask && to.getBorderMask() == borderMask &&
+                from.getBackgroundMask() == backgroundMask && to.getBackgroundMask() == backgroundMask;
+    }
+
+    /**
+     * 计算当前时间的中间样式并安排下一帧，动画结束时渲染目标样式并返回 null
+     */
+    @Nullable
+    private FrameStyle nextAnimationFrame() {
+        long elapsed = SystemClock.uptimeMillis() - mAnimationStartTime;
+        if (elapsed >= mAnimationDuration) {
+            mUpdatingInDraw = true;
+            try {
+                endAnimation();
+            } finally {
+                mUpdatingInDraw = false;
+            }
+            return null;
+        }
+        // 先加速后减速，与 AccelerateDecelerateInterpolator 相同
+        float input = (float) elapsed / mAnimationDuration;
+        float fraction = (float) (Math.cos((input + 1) * Math.PI) / 2) + .5f;
+        if (mFrameStyle == null) {
+            mFrameStyle = new FrameStyle();
+        }
+        FrameStyle frame = mFrameStyle;
+        frame.setInterpolated(mAnimationFrom, mAnimationTo, fraction);
+        mAnimationFraction = fraction;
+        mAnimationFrame = frame;
+        if (mAnimationTinting) {
+            mBorderTint = frame.visibleBorderColor;
+            mBackgroundTint = frame.backgroundColor;
+            applyMaskTints();
+        }
+        super.invalidateSelf();
+        return frame;
+    }
+
+    private void drawBackgroundShader(Canvas canvas, BorderStyle style) {
+        if (style != mBackgroundPathStyle || !mBounds.equals(mBackgroundPathBounds)) {
+            mBackgroundPathStyle = style;
+            mBackgroundPathBounds.set(mBounds);
+            mBackgroundGeometry.set(style.topWidth, style.rightWidth, style.bottomWidth, style.leftWidth,
+                    style.topLeftRadius, style.topRightRadius, style.bottomRightRadius, style.bottomLeftRadius);
+            buildBackgroundPath(style.hasCornerRadii);
+        }
+        drawBackgroundPath(canvas, style.hasCornerRadii);
+    }
+
+    // 中间帧每一帧都不同，每次都重新计算
+    private void drawBackgroundShader(Canvas canvas, FrameStyle frame) {
+        mBackgroundPathStyle = null;
+        mBackgroundGeometry.set(frame.topWidth, frame.rightWidth, frame.bottomWidth, frame.leftWidth,
+                frame.topLeftRadius, frame.topRightRadius, frame.bottomRightRadius, frame.bottomLeftRadius);
+        buildBackgroundPath(frame.hasCornerRadii);
+        drawBackgroundPath(canvas, frame.hasCornerRadii);
+    }
+
+    private void drawBackgroundPath(Canvas canvas, boolean hasCornerRadii) {
+        if (mBackgroundRect.isEmpty()) {
+            return;
+        }
+        mBackgroundPaint.setAlpha(mAlpha);
+        if (hasCornerRadii) {
+            canvas.drawPath(mBackgroundPath, mBackgroundPaint);
+        } else {
+            canvas.drawRect(mBackgroundRect, mBackgroundPaint);
+        }
+    }
+
+    /**
+     * 按 mBackgroundGeometry 计算内框的路径，以及把着色器映射到内框的矩阵
+     */
+    private void buildBackgroundPath(boolean hasCornerRadii) {
+        BorderGeometry geometry = mBackgroundGeometry;
+        RectF rect = mBackgroundRect;
+        rect.set(mBounds.left + geometry.leftWidth,
+                mBounds.top + geometry.topWidth,
+                mBounds.right - geometry.rightWidth,
+                mBounds.bottom - geometry.bottomWidth);
+        if (mBackgroundPath == null) {
+            mBackgroundPath = new Path();
+            mBackgroundMatrix = new Matrix();
+        }
+        mBackgroundPath.reset();
+        if (rect.isEmpty()) {
+            return;
+        }
+        if (hasCornerRadii) {
+            mBackgroundPath.addRoundRect(rect, geometry.innerRadii, Path.Direction.CW);
+        }
+
+        float width = rect.width();
+        float height = rect.height();
+        Matrix matrix = mBackgroundMatrix;
+        switch (mBackgroundShaderType) {
+            case BACKGROUND_IMAGE: {
+                if (mBackgroundImageWidth <= 0 || mBackgroundImageHeight <= 0) {
+                    // 宽或高为 0 的图片（比如已经回收的位图）算不出缩放比例，不做变换
+                    matrix.reset();
+                    break;
+                }
+                float scale = Math.max(width / mBackgroundImageWidth, height / mBackgroundImageHeight);
+                matrix.setScale(scale, scale);
+                matrix.postTranslate(rect.centerX() - mBackgroundImageWidth * scale / 2,
+                        rect.centerY() - mBackgroundImageHeight * scale / 2);
+                break;
+            }
+            case BACKGROUND_LINEAR_GRADIENT: {
+                // 渐变线经过中心，长度使两端的垂线正好经过角点
+                double radians = Math.toRadians(mBackgroundAngle);
+                float sin = (float) Math.sin(radians);
+                float cos = (float) Math.cos(radians);
+                float length = Math.abs(width * sin) + Math.abs(height * cos);
+                matrix.setScale(length, length);
+                // 着色器沿 x 轴，CSS 的 90 度指向右边
+                matrix.postRotate(mBackgroundAngle - 90);
+                matrix.postTranslate(rect.centerX() - sin * length / 2, rect.centerY() + cos * length / 2);
+                break;
+            }
+            default: {
+                // 与内框比例相同、经过四个角的椭圆
+                float sqrt2 = (float) Math.sqrt(2);
+                matrix.setScale(width / 2 * sqrt2, height / 2 * sqrt2);
+                matrix.postTranslate(rect.centerX(), rect.centerY());
+                break;
+            }
+        }
+        mBackgroundShader.setLocalMatrix(matrix);
+    }
+
+    /**
+     * 虚线和点线的直边部分在位图里是空的，这里用平铺的图案补上，开销与边的长度无关。
+     * <p>
+     * 图案不放进九宫格：NinePatch 对拉伸区域是缩放而不是平铺，虚线放进去会随尺寸拉长，
+     * 所以位图里只缓存圆角和背景，一个周期的图案由 PatternTiles 按线型和宽度缓存、所有实例共用，
+     * 每条边用 REPEAT 的 BitmapShader 画一次，并裁剪到这条边的梯形里
+     */
+    private void drawPatternedSides(Canvas canvas, BorderStyle style, @Nullable FrameStyle frame) {
+        if (mPatternStyle != style) {
+            mPatternStyle = style;
+            mPatternShaders[TOP] = createPatternShader(style.topStyle, false, style.topWidth);
+            mPatternShaders[RIGHT] = createPatternShader(style.rightStyle, true, style.rightWidth);
+            mPatternShaders[BOTTOM] = createPatternShader(style.bottomStyle, false, style.bottomWidth);
+            mPatternShaders[LEFT] = createPatternShader(style.leftStyle, true, style.leftWidth);
+        }
+        float width = mBounds.width();
+        float height = mBounds.height();
+        if (mPatternClipStyle != style || mPatternClipWidth != width || mPatternClipHeight != height) {
+            mPatternClipStyle = style;
+            mPatternClipWidth = width;
+            mPatternClipHeight = height;
+            if (mPatternClips == null) {
+                mPatternClips = new Path[4];
+            }
+            for (int side = LEFT; side <= BOTTOM; side++) {
+                if (mPatternShaders[side] != null) {
+                    if (mPatternClips[side] == null) {
+                        mPatternClips[side] = new Path();
+                    }
+                    getPatternClip(style, side, width, height, mPatternClips[side]);
+                }
+            }
+        }
+        Paint paint = getDrawPaint();
+        RectF rect = mPatternRect;
+        if (mPatternMatrix == null) {
+            mPatternMatrix = new Matrix();
+        }
+        Matrix matrix = mPatternMatrix;
+
+        int saveCount = canvas.save();
+        canvas.translate(mBounds.left, mBounds.top);
+        for (int side = LEFT; side <= BOTTOM; side++) {
+            BitmapShader shader = mPatternShaders[side];
+            if (shader == null || !getPatternStrip(style, side, width, height, rect)) {
+                continue;
+            }
+            // 图案的第一行对齐外边缘，右边和下边需要翻转
+            if (side == RIGHT) {
+                matrix.setScale(-1, 1);
+                matrix.postTranslate(rect.right, rect.top);
+            } else if (side == BOTTOM) {
+                matrix.setScale(1, -1);
+                matrix.postTranslate(rect.left, rect.bottom);
+            } else {
+                matrix.setTranslate(rect.left, rect.top);
+            }
+            shader.setLocalMatrix(matrix);
+            paint.setShader(shader);
+            setPaintColor(paint, frame != null ? getSideColor(frame, side) : getSideColor(style, side), mAlpha);
+            canvas.save();
+            canvas.clipPath(mPatternClips[side]);
+            canvas.drawRect(rect, paint);
+            canvas.restore();
+        }
+        paint.setShader(null);
+        canvas.restoreToCount(saveCount);
+    }
+
+    @Nullable
+    private static BitmapShader createPatternShader(int borderStyle, boolean vertical, float thickness) {
+        if (borderStyle == BORDER_STYLE_SOLID || thickness <= BORDER_THRESHOLD) {
+            return null;
+        }
+        Bitmap tile = PatternTiles.get(borderStyle, vertical, thickness);
+        return vertical
+                ? new BitmapShader(tile, Shader.TileMode.CLAMP, Shader.TileMode.REPEAT)
+                : new BitmapShader(tile, Shader.TileMode.REPEAT, Shader.TileMode.CLAMP);
+    }
+
+    /**
+     * 虚线或点线的边在圆角之间的直边部分，宽度向上取整到整像素，与光栅化时清空的区域相同。
+     * 不是虚线或点线、或者没有直边时返回 false
+     */
+    static boolean getPatternStrip(BorderStyle style, int side, float width, float height, RectF out) {
+        switch (side) {
+            case TOP:
+                if (style.topStyle == BORDER_STYLE_SOLID || style.topWidth <= BORDER_THRESHOLD) {
+                    return false;
+                }
+                out.set(Math.max(style.topLeftRadius, style.leftWidth),
+                        0,
+                        width - Math.max(style.topRightRadius, style.rightWidth),
+                        (float) Math.ceil(style.topWidth));
+                break;
+            case RIGHT:
+                if (style.rightStyle == BORDER_STYLE_SOLID || style.rightWidth <= BORDER_THRESHOLD) {
+                    return false;
+                }
+                out.set(width - (float) Math.ceil(style.rightWidth),
+                        Math.max(style.topRightRadius, style.topWidth),
+                        width,
+                        height - Math.max(style.bottomRightRadius, style.bottomWidth));
+                break;
+            case BOTTOM:
+                if (style.bottomStyle == BORDER_STYLE_SOLID || style.bottomWidth <= BORDER_THRESHOLD) {
+                    return false;
+                }
+                out.set(Math.max(style.bottomLeftRadius, style.leftWidth),
+                        height - (float) Math.ceil(style.bottomWidth),
+                        width - Math.max(style.bottomRightRadius, style.rightWidth),
+                        height);
+                break;
+            default:
+                if (style.leftStyle == BORDER_STYLE_SOLID || style.leftWidth <= BORDER_THRESHOLD) {
+                    return false;
+                }
+                out.set(0,
+                        Math.max(style.topLeftRadius, style.topWidth),
+                        (float) Math.ceil(style.leftWidth),
+                        height - Math.max(style.bottomLeftRadius, style.bottomWidth));
+                break;
+        }
+        return out.left < out.right && out.top < out.bottom;
+    }
+
+    /**
+     * 一条边的梯形：外边缘加上经过内角的两条斜线，深度与 getPatternStrip 相同，取整多出来的部分沿斜线延长。
+     * 相邻两条边的梯形正好在斜线上相接
+     */
+    static void getPatternClip(BorderStyle style, int side, float width, float height, Path out) {
+        out.rewind();
+        switch (side) {
+            case TOP: {
+                float depth = (float) Math.ceil(style.topWidth);
+                out.moveTo(0, 0);
+                out.lineTo(width, 0);
+                out.lineTo(width - style.rightWidth * depth / style.topWidth, depth);
+                out.lineTo(style.leftWidth * depth / style.topWidth, depth);
+                break;
+            }
+            case RIGHT: {
+                float depth = (float) Math.ceil(style.rightWidth);
+                out.moveTo(width, 0);
+                out.lineTo(width, height);
+                out.lineTo(width - depth, height - style.bottomWidth * depth / style.rightWidth);
+                out.lineTo(width - depth, style.topWidth * depth / style.rightWidth);
+                break;
+            }
+            case BOTTOM: {
+                float depth = (float) Math.ceil(style.bottomWidth);
+                out.moveTo(0, height);
+                out.lineTo(width, height);
+                out.lineTo(width - style.rightWidth * depth / style.bottomWidth, height - depth);
+                out.lineTo(style.leftWidth * depth / style.bottomWidth, height - depth);
+                break;
+            }
+            default: {
+                float depth = (float) Math.ceil(style.leftWidth);
+                out.moveTo(0, 0);
+                out.lineTo(0, height);
+                out.lineTo(depth, height - style.bottomWidth * depth / style.leftWidth);
+                out.lineTo(depth, style.topWidth * depth / style.leftWidth);
+                break;
+            }
+        }
+        out.close();
+    }
+
+    private static int getSideColor(BorderStyle style, int side) {
+        switch (side) {
+            case TOP:
+                return style.topColor;
+            case RIGHT:
+                return style.rightColor;
+            case BOTTOM:
+                return style.bottomColor;
+            default:
+                return style.leftColor;
+        }
+    }
+
+    private static int getSideColor(FrameStyle frame, int side) {
+        switch (side) {
+            case TOP:
+                return frame.topColor;
+            case RIGHT:
+                return frame.rightColor;
+            case BOTTOM:
+                return frame.bottomColor;
+            default:
+                return frame.leftColor;
+        }
+    }
+
+    private void drawDirect(Canvas canvas, BorderStyle style) {
+        BorderPaths paths = getBorderPaths();
+        paths.build(style, mBounds.width(), mBounds.height());
+
+        int saveCount = canvas.save();
+        canvas.translate(mBounds.left, mBounds.top);
+        paths.draw(canvas, getDrawPaint(), style, mAlpha);
+        canvas.restoreToCount(saveCount);
+    }
+
+    private void drawDirect(Canvas canvas, FrameStyle frame) {
+        BorderPaths paths = getBorderPaths();
+        paths.build(frame, mBounds.width(), mBounds.height());
+
+        int saveCount = canvas.save();
+        canvas.translate(mBounds.left, mBounds.top);
+        paths.draw(canvas, getDrawPaint(), frame, mAlpha);
+        canvas.restoreToCount(saveCount);
+    }
+
+    private BorderPaths getBorderPaths() {
+        if (mBorderPaths == null) {
+            mBorderPaths = new BorderPaths();
+        }
+        return mBorderPaths;
+    }
+
+    private Paint getDrawPaint() {
+        if (mDrawPaint == null) {
+            mDrawPaint = new Paint();
+            mDrawPaint.setAntiAlias(true);
+        }
+        return mDrawPaint;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mAlpha = alpha;
+        if (mBorderMaskDrawable != null || mBackgroundMaskDrawable != null) {
+            applyMaskTints();
+        } else if (mDrawable != null) {
             mDrawable.setAlpha(alpha);
         }
     }
 
     @Override
     public void setColorFilter(ColorFilter cf) {
-        if (mDrawable != null) {
+        getDrawPaint().setColorFilter(cf);
+        if (mBackgroundPaint != null) {
+            mBackgroundPaint.setColorFilter(cf);
+        }
+        if (mBorderMaskDrawable != null || mBackgroundMaskDrawable != null) {
+            // 遮罩上的颜色过滤器用于着色
+            applyMaskTints();
+        } else if (mDrawable != null) {
             mDrawable.setColorFilter(cf);
         }
     }
 
+    /**
+     * 下一次 draw 画的样式：动画还没有计算第一帧时是起点；等着在 draw 里 update 时是当前的样式；
+     * 否则是最后一次渲染的样式。已经有中间帧（mAnimationFrame）时调用者先按中间帧处理
+     */
+    @Nullable
+    private BorderStyle getDrawingStyle() {
+        if (mAnimationTo != null) {
+            return mAnimationFrom;
+        }
+        if (mUpdateScheduled) {
+            return getStyle();
+        }
+        return mRenderedStyle;
+    }
+
     @Override
     public int getOpacity() {
-        if (mDrawable != null) {
-            return mDrawable.getOpacity();
+        if (mAnimationFrame != null) {
+            return getFrameOpacity(mAnimationFrame);
+        }
+        // 按最终的样式判断，不依赖具体用哪种方式渲染
+        BorderStyle style = getDrawingStyle();
+        if (style == null) {
+            return PixelFormat.TRANSPARENT;
+        }
+        if (style.renderType == BorderStyle.RENDER_NONE && mBackgroundShader == null) {
+            return PixelFormat.TRANSPARENT;
+        }
+        if (isOpaqueInside(style) && !style.hasCornerRadii && isPixelAligned(style)) {
+            return PixelFormat.OPAQUE;
+        }
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    // 中间帧直接绘制路径，或者给渲染好的遮罩着色，后者的尺寸与渲染的样式相同
+    private int getFrameOpacity(FrameStyle frame) {
+        if (!frame.hasBackground && !frame.hasBorderInsets && mBackgroundShader == null) {
+            return PixelFormat.TRANSPARENT;
+        }
+        BorderStyle rendered = mRenderedStyle;
+        if (frame.backgroundIsSolid && mAlpha == ALPHA_SOLID && !frame.hasCornerRadii &&
+                (!mAnimationTinting || rendered == null || isPixelAligned(rendered))) {
+            return PixelFormat.OPAQUE;
+        }
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    /**
+     * 外框以内全部不透明时，透明的只有四个圆角外面的部分，按像素精确计算；
+     * 完全不可见时返回整个区域；其他情况无法确定，返回 null。动画的中间帧每一帧都不同，不计算
+     */
+    @Override
+    @Nullable
+    public Region getTransparentRegion() {
+        if (mAnimationFrame != null) {
+            return null;
+        }
+        BorderStyle style = getDrawingStyle();
+        if (style == null) {
+            return null;
+        }
+        boolean invisible = style.renderType == BorderStyle.RENDER_NONE && mBackgroundShader == null;
+        if (!invisible && (!isOpaqueInside(style) || !style.hasCornerRadii)) {
+            return null;
+        }
+        if (style != mTransparentRegionStyle || !mBounds.equals(mTransparentRegionBounds)) {
+            mTransparentRegionStyle = style;
+            mTransparentRegionBounds.set(mBounds);
+            if (mTransparentRegion == null) {
+                mTransparentRegion = new Region();
+            }
+            if (invisible) {
+                mTransparentRegion.set(mBounds);
+            } else {
+                buildCornerRegion(mTransparentRegion, style);
+            }
+        }
+        return mTransparentRegion;
+    }
+
+    /**
+     * 外框的圆角矩形，View 可以用 setClipToOutline 裁剪内容、按这个形状投射阴影，都在渲染线程完成。
+     * 样式变化时 invalidateSelf 会让 View 重新获取轮廓。自动模式下 update 在 draw 里进行，不会再通知 View，
+     * 所以这里按下一次 draw 的样式计算，不依赖是否已经渲染，位图被回收时也不受影响
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public void getOutline(Outline outline) {
+        FrameStyle frame = mAnimationFrame;
+        BorderStyle style = frame == null ? getDrawingStyle() : null;
+        Rect bounds = mBounds;
+        if ((frame == null && style == null) || bounds.isEmpty()) {
+            outline.setEmpty();
+            return;
+        }
+        boolean backgroundIsSolid;
+        boolean hasCornerRadii;
+        float topLeft;
+        float topRight;
+        float bottomRight;
+        float bottomLeft;
+        if (frame != null) {
+            backgroundIsSolid = frame.backgroundIsSolid;
+            hasCornerRadii = frame.hasCornerRadii;
+            topLeft = frame.topLeftRadius;
+            topRight = frame.topRightRadius;
+            bottomRight = frame.bottomRightRadius;
+            bottomLeft = frame.bottomLeftRadius;
+        } else {
+            backgroundIsSolid = style.backgroundIsSolid;
+            hasCornerRadii = style.hasCornerRadii;
+            topLeft = style.topLeftRadius;
+            topRight = style.topRightRadius;
+            bottomRight = style.bottomRightRadius;
+            bottomLeft = style.bottomLeftRadius;
+        }
+        // 与 GradientDrawable 相同，背景不透明时才投射阴影
+        outline.setAlpha(backgroundIsSolid ? mAlpha / (float) ALPHA_SOLID : 0f);
+        if (!hasCornerRadii) {
+            outline.setRect(bounds);
+            return;
+        }
+        if (floatEquals(topLeft, topRight) && floatEquals(topLeft, bottomRight) && floatEquals(topLeft, bottomLeft)) {
+            float max = Math.min(bounds.width(), bounds.height()) / 2f;
+            outline.setRoundRect(bounds, Math.min(topLeft, max));
+            return;
+        }
+        // 按圆角的值比较，中间帧的圆角不变时也不需要重新生成
+        float[] radii = mOutlineRadii;
+        if (mOutlinePath == null || !bounds.equals(mOutlineBounds) ||
+                Float.compare(radii[BorderGeometry.TOP_LEFT_X], topLeft) != 0 ||
+                Float.compare(radii[BorderGeometry.TOP_RIGHT_X], topRight) != 0 ||
+                Float.compare(radii[BorderGeometry.BOTTOM_RIGHT_X], bottomRight) != 0 ||
+                Float.compare(radii[BorderGeometry.BOTTOM_LEFT_X], bottomLeft) != 0) {
+            mOutlineBounds.set(bounds);
+            if (mOutlinePath == null) {
+                mOutlinePath = new Path();
+            }
+            mOutlinePath.reset();
+            radii[BorderGeometry.TOP_LEFT_X] = radii[BorderGeometry.TOP_LEFT_Y] = topLeft;
+            radii[BorderGeometry.TOP_RIGHT_X] = radii[BorderGeometry.TOP_RIGHT_Y] = topRight;
+            radii[BorderGeometry.BOTTOM_RIGHT_X] = radii[BorderGeometry.BOTTOM_RIGHT_Y] = bottomRight;
+            radii[BorderGeometry.BOTTOM_LEFT_X] = radii[BorderGeometry.BOTTOM_LEFT_Y] = bottomLeft;
+            mOutlineRect.set(bounds);
+            mOutlinePath.addRoundRect(mOutlineRect, radii, Path.Direction.CW);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            outline.setPath(mOutlinePath);
+        } else {
+            setConvexPath(outline, mOutlinePath);
+        }
+    }
+
+    // 每个角是四分之一椭圆，整体一定是凸的。R 以上用 setPath，不再要求是凸的
+    @SuppressWarnings("deprecation")
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void setConvexPath(Outline outline, Path path) {
+        outline.setConvexPath(path);
+    }
+
+    // 不透明的背景铺满外框，上面不管画什么都是不透明的
+    private boolean isOpaqueInside(BorderStyle style) {
+        return style.backgroundIsSolid && mAlpha == ALPHA_SOLID;
+    }
+
+    // 九宫格的位图尺寸不是整像素时，最后一行和一列是半透明的
+    private static boolean isPixelAligned(BorderStyle style) {
+        if (style.renderType != BorderStyle.RENDER_NINE_PATCH) {
+            return true;
+        }
+        float horizontal = style.leftWidth + style.rightWidth;
+        float vertical = style.topWidth + style.bottomWidth;
+        return floatEquals(horizontal, Math.round(horizontal)) && floatEquals(vertical, Math.round(vertical));
+    }
+
+    private void buildCornerRegion(Region region, BorderStyle style) {
+        region.setEmpty();
+        Rect bounds = mBounds;
+        // 圆角不能超过尺寸的一半，与 Path.addRoundRect 的处理一致
+        float max = Math.min(bounds.width(), bounds.height()) / 2f;
+        addCornerRegion(region, Math.min(style.topLeftRadius, max), bounds.left, bounds.top, 1, 1);
+        addCornerRegion(region, Math.min(style.topRightRadius, max), bounds.right, bounds.top, -1, 1);
+        addCornerRegion(region, Math.min(style.bottomRightRadius, max), bounds.right, bounds.bottom, -1, -1);
+        addCornerRegion(region, Math.min(style.bottomLeftRadius, max), bounds.left, bounds.bottom, 1, -1);
+    }
+
+    /**
+     * 一个角上完全在圆角外面的像素，逐行合并成矩形。
+     * (x, y) 是外框的角，dx、dy 是指向内部的方向
+     */
+    private static void addCornerRegion(Region region, float radius, int x, int y, int dx, int dy) {
+        int rows = (int) radius;
+        int lastCount = 0;
+        int lastRow = 0;
+        for (int row = 0; row <= rows; row++) {
+            int count = 0;
+            if (row < rows) {
+                // 像素离圆心最近的点是朝向内部的那个角，这个点在圆外时整个像素都在圆外
+                float offsetY = radius - (row + 1);
+                float inside = (float) Math.sqrt(Math.max(0, radius * radius - offsetY * offsetY));
+                count = (int) Math.floor(radius - inside);
+            }
+            if (count != lastCount || row == rows) {
+                if (lastCount > 0) {
+                    int left = dx > 0 ? x : x - lastCount;
+                    int top = dy > 0 ? y + lastRow : y - row;
+                    region.op(left, top, left + lastCount, top + (row - lastRow), Region.Op.UNION);
+                }
+                lastCount = count;
+                lastRow = row;
+            }
         }
-        return 0;
     }
 
     private static final float EPSILON = .00001f;
 
-    private static boolean floatEquals(float f1, float f2) {
+    static boolean floatEquals(float f1, float f2) {
         if (Float.isNaN(f1) || Float.isNaN(f2)) {
             return Float.isNaN(f1) && Float.isNaN(f2);
         }
         return Math.abs(f2 - f1) < EPSILON;
     }
 
-    private static boolean colorEquals(int ca, int cb) {
+    static boolean colorEquals(int ca, int cb) {
         if (Color.alpha(ca) == 0 && Color.alpha(cb) == 0) {
             return true;
         }
         return ca == cb;
     }
 
-    private static class CornerRadii {
-        public float topLeft = 0;
-        public float topRight = 0;
-        public float bottomLeft = 0;
-        public float bottomRight = 0;
+    /**
+     * 把样式光栅化成 NinePatch 位图，持有计算和绘制用的临时对象。
+     * 每个线程使用自己的实例，所以可以在工作线程里光栅化
+     */
+    private static class Rasterizer {
+        private static final ThreadLocal<Rasterizer> sRasterizer = new ThreadLocal<Rasterizer>() {
+            @Override
+            protected Rasterizer initialValue() {
+                return new Rasterizer();
+            }
+        };
+
+        static Rasterizer get() {
+            return sRasterizer.get();
+        }
+
+        final BorderStyle.Builder styleBuilder = new BorderStyle.Builder();
+
+        final BorderGeometry geometry = new BorderGeometry();
+        final BorderInsets borderInsets = new BorderInsets();
+        final BorderColors borderColors = new BorderColors();
+        final BorderInsets edgeInsets = new BorderInsets();
+        final float[] outterRadii = geometry.outerRadii;
+        final float[] innerRadii = geometry.innerRadii;
+
+        final YASizeF size = new YASizeF(0, 0);
+
+        private final RectF mRect = new RectF();
+        private final RectF mDirtyRect = new RectF();
+
+        private Paint mPaint;
+        private Path mPath;
+        private Canvas mCanvas;
+        private Canvas mClipCanvas;
+        private BorderPaths mBorderPaths;
+        private SoftwareRasterizer mSoftwareRasterizer;
+        private byte[] mAlphaBytes;
+        private Paint mClearPaint;
+        private Path mPatternClip;
+
+        /**
+         * 计算样式对应的几何信息和位图尺寸
+         */
+        void prepare(BorderStyle style) {
+            borderInsets.set(style.topWidth, style.rightWidth, style.bottomWidth, style.leftWidth);
+            borderColors.set(style.topColor, style.rightColor, style.bottomColor, style.leftColor);
+            // 圆角、缩放图像的边框和尺寸
+            geometry.set(style.topWidth, style.rightWidth, style.bottomWidth, style.leftWidth,
+                    style.topLeftRadius, style.topRightRadius, style.bottomRightRadius, style.bottomLeftRadius);
+            edgeInsets.set(geometry.edgeTop, geometry.edgeRight, geometry.edgeBottom, geometry.edgeLeft);
+            size.set(geometry.width, geometry.height);
+        }
+
+        /**
+         * 先到缓存里找，没有的话光栅化，style 为 null 时返回 null
+         */
+        @Nullable
+        NinePatchCache.Entry obtain(NinePatchCache cache, @Nullable BorderStyle style, String name,
+                                    Bitmap.Config config) {
+            if (style == null) {
+                return null;
+            }
+            // 排队的时候可能已经有别的 BorderDrawable 生成了同样的位图
+            NinePatchCache.Entry entry = cache.acquire(style);
+            if (entry == null) {
+                entry = rasterize(cache, style, name, config);
+            }
+            return entry;
+        }
+
+        /**
+         * 光栅化为指定格式的位图。ALPHA_8 的遮罩只保留覆盖率，style 的颜色需要是不透明的
+         */
+        NinePatchCache.Entry rasterize(NinePatchCache cache, BorderStyle style, String name,
+                                       Bitmap.Config config) {
+            // 之前启动时生成过的话，直接从磁盘缓存读取
+            NinePatchDiskCache diskCache = cache.getDiskCache();
+            if (diskCache != null) {
+                NinePatchCache.Entry entry = diskCache.load(cache, style, name);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+
+            BorderMetrics.notifyEvent(BorderMetrics.EVENT_RASTERIZE);
+            prepare(style);
+
+            if (mPaint == null) {
+                mPaint = new Paint();
+                mPaint.setAntiAlias(true);
+            }
+            if (mPath == null) {
+                mPath = new Path();
+            }
 
-        public void set(float topLeft, float topRight, float bottomRight, float bottomLeft) {
-            this.topLeft = topLeft;
-            this.topRight = topRight;
-            this.bottomLeft = bottomLeft;
-            this.bottomRight = bottomRight;
+            // 缓存里的位图是共享的，不能在上面重绘，每个样式都需要一张新位图，优先从位图池里复用
+            Bitmap bitmap = BitmapPool.getInstance().get(
+                    size.ceilWidth(),
+                    size.ceilHeight(),
+                    config);
+            if (mCanvas == null) {
+                mCanvas = new Canvas(bitmap);
+            } else {
+                mCanvas.setBitmap(bitmap);
+            }
+            if (sSoftwareRasterize) {
+                rasterizeSoftware(bitmap, style);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                // 用路径运算一次得到每条边和背景最终的区域，每个像素只画一次，不需要临时的遮罩位图
+                if (mBorderPaths == null) {
+                    mBorderPaths = new BorderPaths();
+                }
+                mBorderPaths.build(style, size.width, size.height);
+                mBorderPaths.draw(mCanvas, mPaint, style, ALPHA_SOLID);
+            } else {
+                drawLayered(style);
+            }
+            clearPatternedSides(style);
+
+            /*
+            // 测试用的。绘制拉伸区域
+            paint.setXfermode(null);
+            paint.setColor(Color.YELLOW);
+            mCanvas.drawRect(
+                    edgeInsets.ceilLeft(),
+                    edgeInsets.ceilTop(),
+                    (int) size.width - edgeInsets.ceilRight(),
+                    (int) size.height - edgeInsets.ceilBottom(),
+                    paint);
+            //*/
+
+            //mPath.reset();
+            //mPaint.reset();
+
+            //构造 NinePatchDrawable
+            ByteBuffer buffer = getByteBuffer(
+                    edgeInsets.ceilTop(),
+                    (int) size.width - edgeInsets.ceilRight(),
+                    (int) size.height - edgeInsets.ceilBottom(),
+                    edgeInsets.ceilLeft());
+
+            // 不持有缓存里的位图
+            mCanvas.setBitmap(null);
+
+            byte[] chunk = buffer.array();
+            if (diskCache != null) {
+                diskCache.store(style, bitmap, chunk);
+            }
+            return cache.put(style, bitmap, chunk, name);
+        }
+
+        /**
+         * 不经过 Canvas，逐像素算出覆盖率后一次写入位图，调用前需要先 prepare(style)
+         */
+        private void rasterizeSoftware(Bitmap bitmap, BorderStyle style) {
+            if (mSoftwareRasterizer == null) {
+                mSoftwareRasterizer = new SoftwareRasterizer();
+            }
+            int width = size.ceilWidth();
+            int height = size.ceilHeight();
+            int[] pixels = mSoftwareRasterizer.rasterize(geometry, size.width, size.height, width, height,
+                    style.topColor, style.rightColor, style.bottomColor, style.leftColor,
+                    style.backgroundColor);
+            if (bitmap.getConfig() == Bitmap.Config.ALPHA_8) {
+                // ALPHA_8 上 setPixels 的结果不可靠，直接写入透明度
+                int rowBytes = bitmap.getRowBytes();
+                int byteCount = rowBytes * bitmap.getHeight();
+                if (mAlphaBytes == null || mAlphaBytes.length != byteCount) {
+                    mAlphaBytes = new byte[byteCount];
+                }
+                SoftwareRasterizer.copyAlpha(pixels, width, height, mAlphaBytes, rowBytes);
+                bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(mAlphaBytes));
+            } else {
+                bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+            }
+        }
+
+        /**
+         * 在 from 样式的位图上只重绘颜色有变化的边和背景，两个样式的几何信息必须相同，调用前需要先 prepare(to)
+         */
+        void repaint(Bitmap bitmap, BorderStyle from, BorderStyle to) {
+            if (mPaint == null) {
+                mPaint = new Paint();
+                mPaint.setAntiAlias(true);
+            }
+            if (mPath == null) {
+                mPath = new Path();
+            }
+            if (mCanvas == null) {
+                mCanvas = new Canvas(bitmap);
+            } else {
+                mCanvas.setBitmap(bitmap);
+            }
+            if (sSoftwareRasterize) {
+                // 整张图一次写入，不需要清空
+                rasterizeSoftware(bitmap, to);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                if (mBorderPaths == null) {
+                    mBorderPaths = new BorderPaths();
+                }
+                // 几何信息相同，路径不会重新生成
+                mBorderPaths.build(to, size.width, size.height);
+
+                mDirtyRect.setEmpty();
+                if (from.backgroundColor != to.backgroundColor || from.borderIsOpaque != to.borderIsOpaque) {
+                    // 边框不透明时背景只在内框里，否则会透过边框显示出来
+                    if (from.borderIsOpaque && to.borderIsOpaque) {
+                        unionPathBounds(mBorderPaths.inner);
+                    } else {
+                        mDirtyRect.set(0, 0, size.width, size.height);
+                    }
+                }
+                if (from.leftColor != to.leftColor) {
+                    unionPathBounds(mBorderPaths.sides[LEFT]);
+                }
+                if (from.topColor != to.topColor) {
+                    unionPathBounds(mBorderPaths.sides[TOP]);
+                }
+                if (from.rightColor != to.rightColor) {
+                    unionPathBounds(mBorderPaths.sides[RIGHT]);
+                }
+                if (from.bottomColor != to.bottomColor) {
+                    unionPathBounds(mBorderPaths.sides[BOTTOM]);
+                }
+                if (!mDirtyRect.isEmpty()) {
+                    // 多留一个像素给抗锯齿的边缘，范围内清空后按新样式完整重画，结果与重新光栅化相同
+                    mDirtyRect.inset(-1, -1);
+                    mCanvas.save();
+                    mCanvas.clipRect(mDirtyRect);
+                    mCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+                    mBorderPaths.draw(mCanvas, mPaint, to, ALPHA_SOLID);
+                    mCanvas.restore();
+                }
+            } else {
+                bitmap.eraseColor(Color.TRANSPARENT);
+                drawLayered(to);
+            }
+            clearPatternedSides(to);
+            mCanvas.setBitmap(null);
+        }
+
+        /**
+         * 虚线和点线的直边部分替换为背景色（没有背景时为透明），draw 时再叠加平铺的图案。
+         * 清空的区域与 draw 时相同，裁剪到这条边的梯形，不碰相邻边的转角；圆角部分仍然是实线
+         */
+        private void clearPatternedSides(BorderStyle style) {
+            if (!style.hasPatternedSides) {
+                return;
+            }
+            if (mClearPaint == null) {
+                // 不抗锯齿，覆盖整像素
+                mClearPaint = new Paint();
+                mClearPaint.setXfermode(XFERMODE_SRC);
+            }
+            if (mPatternClip == null) {
+                mPatternClip = new Path();
+            }
+            mClearPaint.setColor(style.backgroundColor);
+            for (int side = LEFT; side <= BOTTOM; side++) {
+                if (getPatternStrip(style, side, size.width, size.height, mRect)) {
+                    getPatternClip(style, side, size.width, size.height, mPatternClip);
+                    mCanvas.save();
+                    mCanvas.clipPath(mPatternClip);
+                    mCanvas.drawRect(mRect, mClearPaint);
+                    mCanvas.restore();
+                }
+            }
+        }
+
+        private void unionPathBounds(Path path) {
+            path.computeBounds(mRect, true);
+            mDirtyRect.union(mRect);
+        }
+
+        /**
+         * 不支持 Path.op 的系统上，先画边框，再用 Xfermode 抠出内外圆角、垫上背景
+         */
+        private void drawLayered(BorderStyle style) {
+            // 画边框
+            geometry.computeInnerCorners(size.width, size.height);
+            float[] corners = geometry.innerCorners;
+
+            // RIGHT
+            if (borderInsets.right > 0) {
+
+                mPath.moveTo(size.width, 0);
+                mPath.lineTo(corners[BorderGeometry.TOP_RIGHT_X], corners[BorderGeometry.TOP_RIGHT_Y]);
+                mPath.lineTo(corners[BorderGeometry.BOTTOM_RIGHT_X], corners[BorderGeometry.BOTTOM_RIGHT_Y]);
+                mPath.lineTo(size.width, size.height);
+                mPath.close();
+
+                mPaint.setColor(borderColors.right);
+                mCanvas.drawPath(mPath, mPaint);
+                mPath.reset();
+            }
+
+            // BOTTOM
+            if (borderInsets.bottom > 0) {
+
+                mPath.moveTo(0, size.height);
+                mPath.lineTo(corners[BorderGeometry.BOTTOM_LEFT_X], corners[BorderGeometry.BOTTOM_LEFT_Y]);
+                mPath.lineTo(corners[BorderGeometry.BOTTOM_RIGHT_X], corners[BorderGeometry.BOTTOM_RIGHT_Y]);
+                mPath.lineTo(size.width, size.height);
+                mPath.close();
+
+                mPaint.setColor(borderColors.bottom);
+                mCanvas.drawPath(mPath, mPaint);
+                mPath.reset();
+            }
+
+            // LEFT
+            if (borderInsets.left > 0) {
+
+                mPath.moveTo(0, 0);
+                mPath.lineTo(corners[BorderGeometry.TOP_LEFT_X], corners[BorderGeometry.TOP_LEFT_Y]);
+                mPath.lineTo(corners[BorderGeometry.BOTTOM_LEFT_X], corners[BorderGeometry.BOTTOM_LEFT_Y]);
+                mPath.lineTo(0, size.height);
+                mPath.close();
+
+                mPaint.setColor(borderColors.left);
+                mCanvas.drawPath(mPath, mPaint);
+                mPath.reset();
+            }
+
+            // TOP
+            if (borderInsets.top > 0) {
+
+                mPath.moveTo(0, 0);
+                mPath.lineTo(corners[BorderGeometry.TOP_LEFT_X], corners[BorderGeometry.TOP_LEFT_Y]);
+                mPath.lineTo(corners[BorderGeometry.TOP_RIGHT_X], corners[BorderGeometry.TOP_RIGHT_Y]);
+                mPath.lineTo(size.width, 0);
+                mPath.close();
+
+                mPaint.setColor(borderColors.top);
+                mCanvas.drawPath(mPath, mPaint);
+                mPath.reset();
+            }
+
+            // 只有在内部有圆角的情况下需要抠出圆角
+            if (geometry.hasCornerInsets()) {
+                // 抠出内边 DST_IN
+                // 内框范围
+                mRect.set(
+                        borderInsets.left,
+                        borderInsets.top,
+                        size.width - borderInsets.right,
+                        size.height - borderInsets.bottom);
+
+                mPath.addRoundRect(mRect, innerRadii, Path.Direction.CW);
+                mPaint.setXfermode(XFERMODE_DST_IN);
+                mPaint.setAlpha(0);
+                mCanvas.drawPath(mPath, mPaint);
+                mPaint.setAlpha(ALPHA_SOLID);
+                mPaint.setXfermode(null);
+                mPath.reset();
+            }
+
+            // 有背景时，在边框后面绘制背景 DST_OVER
+            if (style.hasBackground) {
+                mPaint.setColor(style.backgroundColor);
+                mPaint.setXfermode(XFERMODE_DST_OVER);
+                mCanvas.drawPaint(mPaint);
+                mPaint.setXfermode(null);
+            }
+
+            // 如果有圆角，抠出外框
+            if (style.hasCornerRadii) {
+                // 外框范围
+                mRect.set(0, 0, size.width, size.height);
+
+                Bitmap clipImg = BitmapPool.getInstance().get(
+                        size.ceilWidth(),
+                        size.ceilHeight(),
+                        Bitmap.Config.ARGB_4444);
+
+                if (mClipCanvas == null) {
+                    mClipCanvas = new Canvas(clipImg);
+                } else {
+                    mClipCanvas.setBitmap(clipImg);
+                }
+
+                mPath.addRoundRect(mRect, outterRadii, Path.Direction.CW);
+                mPaint.setColor(Color.BLACK);
+                mClipCanvas.drawPath(mPath, mPaint);
+
+                mPaint.setXfermode(XFERMODE_DST_IN);
+                mCanvas.drawBitmap(clipImg, 0, 0, mPaint);
+                mPaint.setXfermode(null);
+                mPath.reset();
+                mClipCanvas.setBitmap(null);
+                BitmapPool.getInstance().put(clipImg);
+            }
+        }
+    }
+
+    /**
+     * 把待生成的样式二分成小任务，每个工作线程用各自的 Rasterizer
+     */
+    private static class PrerenderTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BorderStyle[] mStyles;
+        private final Bitmap.Config[] mConfigs;
+        private final int mStart;
+        private final int mEnd;
+        private final String mName;
+
+        PrerenderTask(BorderStyle[] styles, Bitmap.Config[] configs, int start, int end, String name) {
+            mStyles = styles;
+            mConfigs = configs;
+            mStart = start;
+            mEnd = end;
+            mName = name;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart <= 1) {
+                prerenderRange(mStyles, mConfigs, mStart, mEnd, mName);
+                return;
+            }
+            int middle = (mStart + mEnd) >>> 1;
+            invokeAll(new PrerenderTask(mStyles, mConfigs, mStart, middle, mName),
+                    new PrerenderTask(mStyles, mConfigs, middle, mEnd, mName));
+        }
+    }
+
+    /**
+     * 边框和背景最终区域的路径，直接绘制和光栅化都会用到，只有样式或者尺寸改变时才重新生成
+     */
+    private static class BorderPaths {
+        // 四条边裁掉内外圆角之后的区域，顺序与 LEFT、TOP、RIGHT、BOTTOM 一致
+        final Path[] sides = new Path[]{new Path(), new Path(), new Path(), new Path()};
+        // 外框圆角矩形
+        final Path outer = new Path();
+        // 内框圆角矩形
+        final Path inner = new Path();
+
+        private final BorderGeometry mGeometry = new BorderGeometry();
+        private final RectF mRect = new RectF();
+
+        private boolean mBuilt;
+        private float mWidth = -1;
+        private float mHeight = -1;
+
+        /**
+         * 返回 false 表示几何信息和尺寸都没有变化，路径不需要重新生成
+         */
+        boolean build(BorderStyle style, float width, float height) {
+            return build(style.topWidth, style.rightWidth, style.bottomWidth, style.leftWidth,
+                    style.topLeftRadius, style.topRightRadius, style.bottomRightRadius, style.bottomLeftRadius,
+                    width, height);
+        }
+
+        boolean build(FrameStyle frame, float width, float height) {
+            return build(frame.topWidth, frame.rightWidth, frame.bottomWidth, frame.leftWidth,
+                    frame.topLeftRadius, frame.topRightRadius, frame.bottomRightRadius, frame.bottomLeftRadius,
+                    width, height);
+        }
+
+        private boolean build(float topWidth, float rightWidth, float bottomWidth, float leftWidth,
+                              float topLeftRadius, float topRightRadius,
+                              float bottomRightRadius, float bottomLeftRadius,
+                              float width, float height) {
+            BorderGeometry geometry = mGeometry;
+            float[] radii = geometry.outerRadii;
+            // 上一次的宽度和圆角就在 mGeometry 里，只有颜色变化时路径不变
+            if (mBuilt && floatEquals(width, mWidth) && floatEquals(height, mHeight) &&
+                    Float.compare(topWidth, geometry.topWidth) == 0 &&
+                    Float.compare(rightWidth, geometry.rightWidth) == 0 &&
+                    Float.compare(bottomWidth, geometry.bottomWidth) == 0 &&
+                    Float.compare(leftWidth, geometry.leftWidth) == 0 &&
+                    Float.compare(topLeftRadius, radii[BorderGeometry.TOP_LEFT_X]) == 0 &&
+                    Float.compare(topRightRadius, radii[BorderGeometry.TOP_RIGHT_X]) == 0 &&
+                    Float.compare(bottomRightRadius, radii[BorderGeometry.BOTTOM_RIGHT_X]) == 0 &&
+                    Float.compare(bottomLeftRadius, radii[BorderGeometry.BOTTOM_LEFT_X]) == 0) {
+                return false;
+            }
+            mBuilt = true;
+            mWidth = width;
+            mHeight = height;
+
+            geometry.set(topWidth, rightWidth, bottomWidth, leftWidth,
+                    topLeftRadius, topRightRadius, bottomRightRadius, bottomLeftRadius);
+
+            outer.reset();
+            mRect.set(0, 0, width, height);
+            outer.addRoundRect(mRect, geometry.outerRadii, Path.Direction.CW);
+
+            inner.reset();
+            mRect.set(leftWidth,
+                    topWidth,
+                    width - rightWidth,
+                    height - bottomWidth);
+            if (!mRect.isEmpty()) {
+                inner.addRoundRect(mRect, geometry.innerRadii, Path.Direction.CW);
+            }
+
+            geometry.computeInnerCorners(width, height);
+            float[] corners = geometry.innerCorners;
+
+            buildSide(sides[LEFT], leftWidth, 0, 0,
+                    corners[BorderGeometry.TOP_LEFT_X], corners[BorderGeometry.TOP_LEFT_Y],
+                    corners[BorderGeometry.BOTTOM_LEFT_X], corners[BorderGeometry.BOTTOM_LEFT_Y],
+                    0, height);
+            buildSide(sides[TOP], topWidth, 0, 0,
+                    corners[BorderGeometry.TOP_LEFT_X], corners[BorderGeometry.TOP_LEFT_Y],
+                    corners[BorderGeometry.TOP_RIGHT_X], corners[BorderGeometry.TOP_RIGHT_Y],
+                    width, 0);
+            buildSide(sides[RIGHT], rightWidth, width, 0,
+                    corners[BorderGeometry.TOP_RIGHT_X], corners[BorderGeometry.TOP_RIGHT_Y],
+                    corners[BorderGeometry.BOTTOM_RIGHT_X], corners[BorderGeometry.BOTTOM_RIGHT_Y],
+                    width, height);
+            buildSide(sides[BOTTOM], bottomWidth, 0, height,
+                    corners[BorderGeometry.BOTTOM_LEFT_X], corners[BorderGeometry.BOTTOM_LEFT_Y],
+                    corners[BorderGeometry.BOTTOM_RIGHT_X], corners[BorderGeometry.BOTTOM_RIGHT_Y],
+                    width, height);
+            return true;
+        }
+
+        private void buildSide(Path side, float borderWidth,
+                               float startX, float startY,
+                               float innerStartX, float innerStartY,
+                               float innerEndX, float innerEndY,
+                               float endX, float endY) {
+            side.reset();
+            if (borderWidth <= 0) {
+                return;
+            }
+            side.moveTo(startX, startY);
+            side.lineTo(innerStartX, innerStartY);
+            side.lineTo(innerEndX, innerEndY);
+            side.lineTo(endX, endY);
+            side.close();
+            // 裁掉外圆角以外和内圆角以内的部分
+            side.op(outer, Path.Op.INTERSECT);
+            side.op(inner, Path.Op.DIFFERENCE);
+        }
+
+        void draw(Canvas canvas, Paint paint, BorderStyle style, int alpha) {
+            draw(canvas, paint, style.hasBackground, style.backgroundColor, style.borderIsOpaque,
+                    style.topColor, style.rightColor, style.bottomColor, style.leftColor, alpha);
+        }
+
+        void draw(Canvas canvas, Paint paint, FrameStyle frame, int alpha) {
+            draw(canvas, paint, frame.hasBackground, frame.backgroundColor, frame.borderIsOpaque,
+                    frame.topColor, frame.rightColor, frame.bottomColor, frame.leftColor, alpha);
+        }
+
+        private void draw(Canvas canvas, Paint paint,
+                          boolean hasBackground, int backgroundColor, boolean borderIsOpaque,
+                          int topColor, int rightColor, int bottomColor, int leftColor, int alpha) {
+            // 背景在边框下面；四条边都不透明时边框会完全盖住背景，背景只需要画在内框里
+            if (hasBackground) {
+                setPaintColor(paint, backgroundColor, alpha);
+                canvas.drawPath(borderIsOpaque ? inner : outer, paint);
+            }
+            // 与光栅化时的顺序相同
+            setPaintColor(paint, rightColor, alpha);
+            canvas.drawPath(sides[RIGHT], paint);
+            setPaintColor(paint, bottomColor, alpha);
+            canvas.drawPath(sides[BOTTOM], paint);
+            setPaintColor(paint, leftColor, alpha);
+            canvas.drawPath(sides[LEFT], paint);
+            setPaintColor(paint, topColor, alpha);
+            canvas.drawPath(sides[TOP], paint);
+        }
+    }
+
+    /**
+     * 虚线和点线一个周期的 ALPHA_8 图案，按线型、方向和宽度缓存，所有 BorderDrawable 共用。
+     * 绘制时作为 BitmapShader 沿边平铺，颜色来自画笔
+     */
+    private static class PatternTiles {
+        private static final int MAX_TILES = 32;
+        // 虚线的长度和间隔，以边框宽度为单位
+        private static final float DASH_LENGTH = 3f;
+        private static final float DASH_GAP = 2f;
+        // 点线的间隔，以边框宽度为单位
+        private static final float DOT_GAP = 1f;
+
+        // 被淘汰的图案可能还有 BitmapShader 在用，不能回收，交给 GC
+        private static final LinkedHashMap<Integer, Bitmap> sTiles =
+                new LinkedHashMap<Integer, Bitmap>(0, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Integer, Bitmap> eldest) {
+                        if (size() <= MAX_TILES) {
+                            return false;
+                        }
+                        sSize -= byteCount(eldest.getValue());
+                        return true;
+                    }
+                };
+        private static int sSize;
+
+        static int size() {
+            synchronized (sTiles) {
+                return sSize;
+            }
+        }
+
+        static void evictAll() {
+            synchronized (sTiles) {
+                sTiles.clear();
+                sSize = 0;
+            }
+        }
+
+        private static int byteCount(Bitmap tile) {
+            return tile.getRowBytes() * tile.getHeight();
+        }
+
+        static Bitmap get(int borderStyle, boolean vertical, float thickness) {
+            int quantized = Math.max(1, Math.round(thickness * QUANTIZE_SCALE));
+            Integer key = (quantized << 3) | (borderStyle << 1) | (vertical ? 1 : 0);
+            synchronized (sTiles) {
+                Bitmap tile = sTiles.get(key);
+                if (tile == null) {
+                    tile = create(borderStyle, vertical, quantized / QUANTIZE_SCALE);
+                    sSize += byteCount(tile);
+                    sTiles.put(key, tile);
+                }
+                return tile;
+            }
+        }
+
+        private static Bitmap create(int borderStyle, boolean vertical, float thickness) {
+            boolean dotted = borderStyle == BORDER_STYLE_DOTTED;
+            // 点的直径等于边框宽度
+            int length = Math.max(1, Math.round(dotted ? thickness : thickness * DASH_LENGTH));
+            int period = length + Math.max(1, Math.round(thickness * (dotted ? DOT_GAP : DASH_GAP)));
+            int depth = (int) Math.ceil(thickness);
+            Bitmap tile = Bitmap.createBitmap(
+                    vertical ? depth : period,
+                    vertical ? period : depth,
+                    Bitmap.Config.ALPHA_8);
+            Canvas canvas = new Canvas(tile);
+            Paint paint = new Paint();
+            paint.setAntiAlias(true);
+            if (dotted) {
+                float radius = thickness / 2;
+                canvas.drawCircle(radius, radius, radius, paint);
+            } else if (vertical) {
+                canvas.drawRect(0, 0, thickness, length, paint);
+            } else {
+                canvas.drawRect(0, 0, length, thickness, paint);
+            }
+            return tile;
+        }
+    }
+
+    private static void setPaintColor(Paint paint, int color, int alpha) {
+        paint.setColor(color);
+        if (alpha < ALPHA_SOLID) {
+            paint.setAlpha(Color.alpha(color) * alpha / ALPHA_SOLID);
         }
     }
 
@@ -798,6 +2718,11 @@ public class BorderDrawable extends Drawable {
             this.height = height;
         }
 
+        public void set(float width, float height) {
+            this.width = width;
+            this.height = height;
+        }
+
         public int ceilWidth() {
             return (int) Math.ceil(width);
         }
@@ -819,55 +2744,6 @@ public class BorderDrawable extends Drawable {
         }
     }
 
-    private static class YARectF extends RectF {
-
-        public YARectF() {
-            super();
-        }
-
-        public void setOriginAndSize(float x, float y, float width, float height) {
-            set(x, y, x + width, y + height);
-        }
-    }
-
-    private static class CornerInsets {
-        public YASizeF topLeft = new YASizeF(0, 0);
-        public YASizeF topRight = new YASizeF(0, 0);
-        public YASizeF bottomLeft = new YASizeF(0, 0);
-        public YASizeF bottomRight = new YASizeF(0, 0);
-
-        public void set(float topLeftWidth, float topLeftHeight, float topRightWidth, float topRightHeight,
-                        float bottomLeftWidth, float bottomLeftHeight, float bottomRightWidth, float bottomRightHeight) {
-
-            this.topLeft = new YASizeF(topLeftWidth, topLeftHeight);
-            this.topRight = new YASizeF(topRightWidth, topRightHeight);
-            this.bottomLeft = new YASizeF(bottomLeftWidth, bottomLeftHeight);
-            this.bottomRight = new YASizeF(bottomRightWidth, bottomRightHeight);
-        }
-
-        public boolean hasCornerInsets() {
-            return !topLeft.isEmpty() ||
-                    !topRight.isEmpty() ||
-                    !bottomLeft.isEmpty() ||
-                    !bottomRight.isEmpty();
-        }
-    }
-
-    private static class ColorSpacing extends Spacing<Integer> {
-        @Override
-        protected boolean valueEquals(Integer a, Integer b) {
-            return colorEquals(a, b);
-        }
-    }
-
-    private static class FloatSpacing extends Spacing<Float> {
-        @Override
-        protected boolean valueEquals(Float f1, Float f2) {
-            return floatEquals(f1, f2);
-        }
-    }
-
-
     public static final int LEFT = 0;
     public static final int TOP = 1;
     public static final int RIGHT = 2;
@@ -887,103 +2763,236 @@ public class BorderDrawable extends Drawable {
     // NOTICE ALL 的值一定要是最大的，因为 FULL_SPACING_SIZE 会用到这个值
     public static final int ALL = 6;
 
-    private static abstract class Spacing<T> {
+    private static final int FULL_SPACING_SIZE = ALL + 1;
+    private static final int SPACING_RESULT_SIZE = 4;
+
+    // writeStyle 写入的记录大小
+    public static final int STYLE_RECORD_SIZE = 4 + FULL_SPACING_SIZE * (2 + 2 + 4) + 4 + 4;
+    private static final byte STYLE_RECORD_VERSION = 2;
+    // 第一版没有线型，记录短 4 个字节
+    private static final byte STYLE_RECORD_VERSION_NO_STYLES = 1;
+    private static final int SPACING_DEFINED_MASK = (1 << FULL_SPACING_SIZE) - 1;
+    // 长度量化的精度，1/16 像素
+    private static final float QUANTIZE_SCALE = 16f;
+
+    // 每个方向的上一级，TOP -> VERTICAL -> ALL
+    private static final int[] EDGE_PARENTS = new int[]{HORIZONTAL, VERTICAL, HORIZONTAL, VERTICAL};
+    // 每个角的上一级，TOP_LEFT -> TOP_LEFT_BOTTOM_RIGHT -> ALL
+    private static final int[] CORNER_PARENTS = new int[]{
+            TOP_LEFT_BOTTOM_RIGHT, TOP_RIGHT_BOTTOM_LEFT, TOP_LEFT_BOTTOM_RIGHT, TOP_RIGHT_BOTTOM_LEFT};
+
+    /**
+     * 用基本类型保存的 Spacing，用一个 int 的位标记是否设置过。
+     * 每次修改时就算好四个方向最终的值，读取时不需要再逐级查找
+     */
+    private static class FloatSpacing {
+        private final float[] mSpacing = new float[FULL_SPACING_SIZE];
+        private final float[] mResult = new float[SPACING_RESULT_SIZE];
+        private final int[] mParents;
+        private final float mDefaultValue;
+        private int mDefined = 0;
+
+        FloatSpacing(int[] parents, float defaultValue) {
+            mParents = parents;
+            mDefaultValue = defaultValue;
+            resolve();
+        }
+
+        public boolean isDefined(int spacingType) {
+            return (mDefined & (1 << spacingType)) != 0;
+        }
+
+        public boolean set(int spacingType, float value) {
+            if (!isDefined(spacingType) || !floatEquals(mSpacing[spacingType], value)) {
+                mSpacing[spacingType] = value;
+                mDefined |= 1 << spacingType;
+                resolve();
+                return true;
+            }
+            return false;
+        }
+
+        public boolean unset(int spacingType) {
+            if (isDefined(spacingType)) {
+                mDefined &= ~(1 << spacingType);
+                resolve();
+                return true;
+            }
+            return false;
+        }
+
+        public void reset() {
+            mDefined = 0;
+            resolve();
+        }
 
-        private static final int FULL_SPACING_SIZE = ALL + 1;
-        private static final int SPACING_RESULT_SIZE = 4;
+        /**
+         * 返回四个方向之一最终的值
+         */
+        public float get(int spacingType) {
+            return mResult[spacingType];
+        }
 
-        private final Object[] mSpacing = newFullSpacingArray();
-        private final boolean[] mSpacingDefined = newFullSpacingDefinedArray();
+        public float getRaw(int spacingType) {
+            return mSpacing[spacingType];
+        }
 
-        @Nullable
-        private Object[] mDefaultSpacing = null;
+        int getDefinedMask() {
+            return mDefined;
+        }
 
-        abstract protected boolean valueEquals(T a, T b);
+        void writeTo(ByteBuffer buffer) {
+            for (int i = 0; i < FULL_SPACING_SIZE; i++) {
+                int quantized = isDefined(i) ? Math.round(mSpacing[i] * QUANTIZE_SCALE) : 0;
+                buffer.putChar((char) Math.max(0, Math.min(Character.MAX_VALUE, quantized)));
+            }
+        }
+
+        /**
+         * 一次读入全部的值，只计算一次结果
+         */
+        void readFrom(ByteBuffer buffer, int defined) {
+            for (int i = 0; i < FULL_SPACING_SIZE; i++) {
+                mSpacing[i] = buffer.getChar() / QUANTIZE_SCALE;
+            }
+            mDefined = defined;
+            resolve();
+        }
 
-        private boolean isDefined(int spacingType) {
-            return mSpacingDefined[spacingType];
+        private void resolve() {
+            for (int i = 0; i < SPACING_RESULT_SIZE; i++) {
+                int parent = mParents[i];
+                mResult[i] = isDefined(i)
+                        ? mSpacing[i]
+                        : isDefined(parent)
+                        ? mSpacing[parent]
+                        : isDefined(ALL)
+                        ? mSpacing[ALL]
+                        : mDefaultValue;
+            }
         }
+    }
 
-        public boolean set(int spacingType, T value) {
-            if (!isDefined(spacingType) || !valueEquals((T) mSpacing[spacingType], value)) {
+    /**
+     * 值为 int 的 Spacing，颜色和线型共用。颜色按 colorEquals 比较（完全透明的颜色都相等），其他值直接比较
+     */
+    private static class IntSpacing {
+        private final int[] mSpacing = new int[FULL_SPACING_SIZE];
+        private final int[] mResult = new int[SPACING_RESULT_SIZE];
+        private final int[] mParents;
+        private final int mDefaultValue;
+        private final boolean mIsColor;
+        private int mDefined = 0;
+
+        IntSpacing(int[] parents, int defaultValue, boolean isColor) {
+            mParents = parents;
+            mDefaultValue = defaultValue;
+            mIsColor = isColor;
+            resolve();
+        }
+
+        public boolean isDefined(int spacingType) {
+            return (mDefined & (1 << spacingType)) != 0;
+        }
+
+        public boolean set(int spacingType, int value) {
+            if (!isDefined(spacingType) || !valueEquals(mSpacing[spacingType], value)) {
                 mSpacing[spacingType] = value;
-                mSpacingDefined[spacingType] = true;
+                mDefined |= 1 << spacingType;
+                resolve();
                 return true;
             }
             return false;
         }
 
+        private boolean valueEquals(int a, int b) {
+            return mIsColor ? colorEquals(a, b) : a == b;
+        }
+
         public boolean unset(int spacingType) {
             if (isDefined(spacingType)) {
-                mSpacing[spacingType] = null;
-                mSpacingDefined[spacingType] = false;
+                mDefined &= ~(1 << spacingType);
+                resolve();
                 return true;
             }
             return false;
         }
 
-        public boolean setDefault(int spacingType, T value) {
-            if (mDefaultSpacing == null) {
-                mDefaultSpacing = newSpacingResultArray();
-            }
-            if (!valueEquals((T) mDefaultSpacing[spacingType], value)) {
-                mDefaultSpacing[spacingType] = value;
-                return true;
-            }
-            return false;
+        public void reset() {
+            mDefined = 0;
+            resolve();
         }
 
-        @Nullable
-        public T get(int spacingType) {
-            return get(spacingType, null);
+        public int get(int spacingType) {
+            return mResult[spacingType];
         }
 
-        public T get(int spacingType, T defaultValue) {
+        public int getRaw(int spacingType) {
+            return mSpacing[spacingType];
+        }
 
-            int secondType =
-                    spacingType == TOP || spacingType == BOTTOM ? VERTICAL :
-                            spacingType == LEFT || spacingType == RIGHT ? HORIZONTAL :
-                                    spacingType == TOP_LEFT || spacingType == BOTTOM_RIGHT ? TOP_LEFT_BOTTOM_RIGHT :
-                                            spacingType == TOP_RIGHT || spacingType == BOTTOM_LEFT ? TOP_RIGHT_BOTTOM_LEFT :
-                                                    ALL;
+        int getDefinedMask() {
+            return mDefined;
+        }
 
-            return (T) (isDefined(spacingType)
-                    ? mSpacing[spacingType]
-                    : isDefined(secondType)
-                    ? mSpacing[secondType]
-                    : isDefined(ALL)
-                    ? mSpacing[ALL]
-                    : mDefaultSpacing != null
-                    ? mDefaultSpacing[spacingType]
-                    : defaultValue);
+        void writeTo(ByteBuffer buffer) {
+            for (int i = 0; i < FULL_SPACING_SIZE; i++) {
+                buffer.putInt(isDefined(i) ? mSpacing[i] : 0);
+            }
         }
 
-        public T getRaw(int spacingType) {
-            return (T) mSpacing[spacingType];
+        void readFrom(ByteBuffer buffer, int defined) {
+            for (int i = 0; i < FULL_SPACING_SIZE; i++) {
+                mSpacing[i] = buffer.getInt();
+            }
+            mDefined = defined;
+            resolve();
         }
 
-        private static Object[] newFullSpacingArray() {
-            return new Object[FULL_SPACING_SIZE];
+        /**
+         * 线型只有几种，每个占 2 位，连同是否设置过的标记一起写成一个 int
+         */
+        void writePackedTo(ByteBuffer buffer) {
+            int packed = mDefined << 16;
+            for (int i = 0; i < FULL_SPACING_SIZE; i++) {
+                packed |= (isDefined(i) ? mSpacing[i] & 0x3 : 0) << (i * 2);
+            }
+            buffer.putInt(packed);
         }
 
-        private static boolean[] newFullSpacingDefinedArray() {
-            boolean[] arr = new boolean[FULL_SPACING_SIZE];
+        void readPackedFrom(ByteBuffer buffer) {
+            int packed = buffer.getInt();
+            checkPacked(packed);
             for (int i = 0; i < FULL_SPACING_SIZE; i++) {
-                arr[i] = false;
+                mSpacing[i] = (packed >> (i * 2)) & 0x3;
             }
-            return arr;
+            mDefined = (packed >>> 16) & SPACING_DEFINED_MASK;
+            resolve();
         }
 
-        private static Object[] newSpacingResultArray() {
-            return newSpacingResultArray(null);
+        /**
+         * 2 位能表示的值比线型多，设置过的值超出范围时抛出 IllegalArgumentException
+         */
+        static void checkPacked(int packed) {
+            int defined = (packed >>> 16) & SPACING_DEFINED_MASK;
+            for (int i = 0; i < FULL_SPACING_SIZE; i++) {
+                if ((defined & (1 << i)) != 0) {
+                    checkBorderStyle((packed >> (i * 2)) & 0x3);
+                }
+            }
         }
 
-        private static Object[] newSpacingResultArray(Object defaultValue) {
-            Object[] arr = new Object[SPACING_RESULT_SIZE];
+        private void resolve() {
             for (int i = 0; i < SPACING_RESULT_SIZE; i++) {
-                arr[i] = defaultValue;
+                int parent = mParents[i];
+                mResult[i] = isDefined(i)
+                        ? mSpacing[i]
+                        : isDefined(parent)
+                        ? mSpacing[parent]
+                        : isDefined(ALL)
+                        ? mSpacing[ALL]
+                        : mDefaultValue;
             }
-            return arr;
         }
     }
 
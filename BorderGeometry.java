@@ -0,0 +1,187 @@
+/**
+ * 边框的几何计算，只使用基本类型，不依赖 android.graphics，可以直接在普通的 JVM 上运行、测试和做性能分析。
+ * 对象可以重复使用，计算过程中不分配内存。
+ * <p>
+ * 成对的数组每个角占两个位置 (x, y)，顺序为左上、右上、右下、左下，与 GradientDrawable.setCornerRadii 一致
+ */
+public final class BorderGeometry {
+
+    // 九宫格中间可拉伸部分的大小
+    public static final int STRETCH_SIZE = 5;
+
+    public static final int TOP_LEFT_X = 0;
+    public static final int TOP_LEFT_Y = 1;
+    public static final int TOP_RIGHT_X = 2;
+    public static final int TOP_RIGHT_Y = 3;
+    public static final int BOTTOM_RIGHT_X = 4;
+    public static final int BOTTOM_RIGHT_Y = 5;
+    public static final int BOTTOM_LEFT_X = 6;
+    public static final int BOTTOM_LEFT_Y = 7;
+
+    private static final float EMPTY_THRESHOLD = .001f;
+
+    public float topWidth;
+    public float rightWidth;
+    public float bottomWidth;
+    public float leftWidth;
+
+    // 外框圆角和内框圆角
+    public final float[] outerRadii = new float[8];
+    public final float[] innerRadii = new float[8];
+    // 圆角伸进内框的部分（内框圆角椭圆的半轴）
+    public final float[] cornerInsets = new float[8];
+
+    // 九宫格四边不能拉伸的部分
+    public float edgeTop;
+    public float edgeRight;
+    public float edgeBottom;
+    public float edgeLeft;
+
+    // 九宫格图片的尺寸
+    public float width;
+    public float height;
+
+    // computeInnerCorners 的结果：四条边梯形在内侧的顶点
+    public final float[] innerCorners = new float[8];
+
+    private final float[] mIntersection = new float[2];
+
+    /**
+     * 计算圆角、九宫格边距和图片尺寸
+     */
+    public void set(float topWidth, float rightWidth, float bottomWidth, float leftWidth,
+                    float topLeftRadius, float topRightRadius, float bottomRightRadius, float bottomLeftRadius) {
+        this.topWidth = topWidth;
+        this.rightWidth = rightWidth;
+        this.bottomWidth = bottomWidth;
+        this.leftWidth = leftWidth;
+
+        float[] outer = outerRadii;
+        outer[TOP_LEFT_X] = outer[TOP_LEFT_Y] = topLeftRadius;
+        outer[TOP_RIGHT_X] = outer[TOP_RIGHT_Y] = topRightRadius;
+        outer[BOTTOM_RIGHT_X] = outer[BOTTOM_RIGHT_Y] = bottomRightRadius;
+        outer[BOTTOM_LEFT_X] = outer[BOTTOM_LEFT_Y] = bottomLeftRadius;
+
+        float[] inner = innerRadii;
+        inner[TOP_LEFT_X] = Math.max(0, topLeftRadius - leftWidth);
+        inner[TOP_LEFT_Y] = Math.max(0, topLeftRadius - topWidth);
+        inner[TOP_RIGHT_X] = Math.max(0, topRightRadius - rightWidth);
+        inner[TOP_RIGHT_Y] = Math.max(0, topRightRadius - topWidth);
+        inner[BOTTOM_RIGHT_X] = Math.max(0, bottomRightRadius - rightWidth);
+        inner[BOTTOM_RIGHT_Y] = Math.max(0, bottomRightRadius - bottomWidth);
+        inner[BOTTOM_LEFT_X] = Math.max(0, bottomLeftRadius - leftWidth);
+        inner[BOTTOM_LEFT_Y] = Math.max(0, bottomLeftRadius - bottomWidth);
+
+        // 内框圆角与内框半径相同
+        System.arraycopy(inner, 0, cornerInsets, 0, 8);
+
+        float[] corner = cornerInsets;
+        edgeTop = topWidth + Math.max(corner[TOP_LEFT_Y], corner[TOP_RIGHT_Y]);
+        edgeRight = rightWidth + Math.max(corner[BOTTOM_RIGHT_X], corner[TOP_RIGHT_X]);
+        edgeBottom = bottomWidth + Math.max(corner[BOTTOM_LEFT_Y], corner[BOTTOM_RIGHT_Y]);
+        edgeLeft = leftWidth + Math.max(corner[TOP_LEFT_X], corner[BOTTOM_LEFT_X]);
+
+        width = edgeLeft + STRETCH_SIZE + edgeRight;
+        height = edgeTop + STRETCH_SIZE + edgeBottom;
+    }
+
+    public boolean hasCornerInsets() {
+        return !isCornerEmpty(TOP_LEFT_X) ||
+                !isCornerEmpty(TOP_RIGHT_X) ||
+                !isCornerEmpty(BOTTOM_RIGHT_X) ||
+                !isCornerEmpty(BOTTOM_LEFT_X);
+    }
+
+    /**
+     * 计算指定尺寸下四条边梯形在内侧的顶点：外框的角与内框的角的连线和内框圆角的交点，
+     * 没有内框圆角时就是内框的角。需要先调用 set
+     */
+    public void computeInnerCorners(float width, float height) {
+        float[] corners = innerCorners;
+        float[] corner = cornerInsets;
+
+        // 内框的左上角
+        corners[TOP_LEFT_X] = leftWidth;
+        corners[TOP_LEFT_Y] = topWidth;
+        if (!isCornerEmpty(TOP_LEFT_X)) {
+            float rx = corner[TOP_LEFT_X];
+            float ry = corner[TOP_LEFT_Y];
+            intersectInnerCorner(leftWidth + rx, topWidth + ry, rx, ry, 0, 0, TOP_LEFT_X);
+        }
+
+        // 内框的右上角
+        corners[TOP_RIGHT_X] = width - rightWidth;
+        corners[TOP_RIGHT_Y] = topWidth;
+        if (!isCornerEmpty(TOP_RIGHT_X)) {
+            float rx = corner[TOP_RIGHT_X];
+            float ry = corner[TOP_RIGHT_Y];
+            intersectInnerCorner(width - rightWidth - rx, topWidth + ry, rx, ry, width, 0, TOP_RIGHT_X);
+        }
+
+        // 内框的右下角
+        corners[BOTTOM_RIGHT_X] = width - rightWidth;
+        corners[BOTTOM_RIGHT_Y] = height - bottomWidth;
+        if (!isCornerEmpty(BOTTOM_RIGHT_X)) {
+            float rx = corner[BOTTOM_RIGHT_X];
+            float ry = corner[BOTTOM_RIGHT_Y];
+            intersectInnerCorner(width - rightWidth - rx, height - bottomWidth - ry, rx, ry, width, height, BOTTOM_RIGHT_X);
+        }
+
+        // 内框的左下角
+        corners[BOTTOM_LEFT_X] = leftWidth;
+        corners[BOTTOM_LEFT_Y] = height - bottomWidth;
+        if (!isCornerEmpty(BOTTOM_LEFT_X)) {
+            float rx = corner[BOTTOM_LEFT_X];
+            float ry = corner[BOTTOM_LEFT_Y];
+            intersectInnerCorner(leftWidth + rx, height - bottomWidth - ry, rx, ry, 0, height, BOTTOM_LEFT_X);
+        }
+    }
+
+    // 外框的角到内框的角的连线与内框圆角的交点，没有交点时保留内框的角
+    private void intersectInnerCorner(float centerX, float centerY, float radiusX, float radiusY,
+                                      float startX, float startY, int index) {
+        float[] corners = innerCorners;
+        if (intersectEllipse(centerX, centerY, radiusX, radiusY,
+                startX, startY, corners[index], corners[index + 1], mIntersection)) {
+            corners[index] = mIntersection[0];
+            corners[index + 1] = mIntersection[1];
+        }
+    }
+
+    private boolean isCornerEmpty(int index) {
+        return cornerInsets[index] < EMPTY_THRESHOLD || cornerInsets[index + 1] < EMPTY_THRESHOLD;
+    }
+
+    /**
+     * 求从 (startX, startY) 到 (endX, endY) 的直线与椭圆的交点中离起点最近的一个，结果写入 out[0]、out[1]。
+     * 用参数方程 P = S + t(E - S) 代入椭圆方程解一元二次方程，竖直的直线也能正确处理。
+     * 没有交点返回 false
+     */
+    public static boolean intersectEllipse(float centerX, float centerY, float radiusX, float radiusY,
+                                           float startX, float startY, float endX, float endY,
+                                           float[] out) {
+        if (radiusX <= 0 || radiusY <= 0) {
+            return false;
+        }
+        // 缩放成单位圆
+        float u = (startX - centerX) / radiusX;
+        float v = (startY - centerY) / radiusY;
+        float du = (endX - startX) / radiusX;
+        float dv = (endY - startY) / radiusY;
+
+        float a = du * du + dv * dv;
+        if (a == 0) {
+            return false;
+        }
+        float halfB = u * du + v * dv;
+        float c = u * u + v * v - 1;
+        float discriminant = halfB * halfB - a * c;
+        if (discriminant < 0) {
+            return false;
+        }
+        float t = (-halfB - (float) Math.sqrt(discriminant)) / a;
+        out[0] = startX + t * (endX - startX);
+        out[1] = startY + t * (endY - startY);
+        return true;
+    }
+}
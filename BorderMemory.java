@@ -0,0 +1,185 @@
+import android.content.ComponentCallbacks2;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.view.View;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import javax.annotation.Nullable;
+
+/**
+ * 边框位图的内存预算。所有光栅化的位图都在 NinePatchCache 里（包括正在使用的和 BorderClipDrawable 的圆角位图），
+ * 空闲的位图在 BitmapPool 里，两者加起来不超过预算，虚线和点线的图案数量固定，也计入 size。
+ * 正在使用的条目记着使用它的 BorderDrawable，超出预算时按 LRU 的顺序找到不在屏幕上的 BorderDrawable 释放位图，
+ * 下一次 draw 时重新渲染。
+ * <p>
+ * 除了 size 之类的查询，其余方法都需要在主线程调用。
+ */
+public final class BorderMemory {
+
+    // 默认共 6MB，与 NinePatchCache 和 BitmapPool 的默认大小一致，其中三分之一给位图池
+    private static final int DEFAULT_BUDGET = 6 * 1024 * 1024;
+    private static final int POOL_SHARE = 3;
+
+    private static int sBudget = DEFAULT_BUDGET;
+
+    // 同一帧里多次超出预算只整理一次
+    private static boolean sTrimScheduled;
+    private static final Runnable sTrimRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sTrimScheduled = false;
+            trimToBudget();
+        }
+    };
+
+    private static final ArrayList<NinePatchCache.Entry> sInUseEntries = new ArrayList<NinePatchCache.Entry>();
+    private static final Rect sVisibleRect = new Rect();
+
+    private BorderMemory() {
+    }
+
+    /**
+     * 设置边框位图的总预算（字节），按比例分给 NinePatchCache 和 BitmapPool，超出的部分立即释放
+     */
+    public static void setBudget(int budget) {
+        sBudget = budget;
+        int poolSize = budget / POOL_SHARE;
+        BitmapPool.getInstance().resize(poolSize);
+        NinePatchCache.getInstance().resize(budget - poolSize);
+        trimToBudget();
+    }
+
+    public static int getBudget() {
+        return sBudget;
+    }
+
+    /**
+     * 当前边框位图占用的字节数，包括正在使用的、空闲的和虚线点线的图案
+     */
+    public static int size() {
+        return NinePatchCache.getInstance().size() + BitmapPool.getInstance().size() +
+                BorderDrawable.getPatternTilesSize();
+    }
+
+    /**
+     * 在 Application 或者 Activity 的 onTrimMemory 里调用，level 是 ComponentCallbacks2.TRIM_MEMORY_*
+     */
+    public static void trimMemory(int level) {
+        NinePatchCache cache = NinePatchCache.getInstance();
+        BitmapPool pool = BitmapPool.getInstance();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // 界面已经不可见了，全部释放
+            releaseDrawables(true, Integer.MAX_VALUE);
+            cache.evictAll();
+            pool.evictAll();
+            BorderDrawable.evictPatternTiles();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            releaseDrawables(false, Integer.MAX_VALUE);
+            cache.evictAll();
+            pool.evictAll();
+            BorderDrawable.evictPatternTiles();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+            pool.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            pool.trimToSize(pool.maxSize() / 2);
+        }
+    }
+
+    /**
+     * BorderDrawable 开始使用条目时调用，新位图让正在使用的位图超出预算时，在主线程空闲时统一整理
+     */
+    static void register(BorderDrawable drawable, NinePatchCache.Entry entry) {
+        entry.holders.add(new WeakReference<BorderDrawable>(drawable));
+        NinePatchCache cache = NinePatchCache.getInstance();
+        if (!sTrimScheduled && cache.size() > cache.maxSize()) {
+            sTrimScheduled = true;
+            BorderDrawable.getMainHandler().post(sTrimRunnable);
+        }
+    }
+
+    /**
+     * BorderDrawable 不再使用条目时调用，在归还条目的引用之前
+     */
+    static void unregister(BorderDrawable drawable, @Nullable NinePatchCache.Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        ArrayList<WeakReference<BorderDrawable>> holders = entry.holders;
+        for (int i = holders.size() - 1; i >= 0; i--) {
+            if (holders.get(i).get() == drawable) {
+                holders.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 正在使用的位图超出了缓存的大小时，释放不在屏幕上的 BorderDrawable 的位图
+     */
+    static void trimToBudget() {
+        NinePatchCache cache = NinePatchCache.getInstance();
+        int excess = cache.size() - cache.maxSize();
+        if (excess <= 0) {
+            return;
+        }
+        releaseDrawables(false, excess);
+        cache.trimToSize(cache.maxSize());
+    }
+
+    /**
+     * 从最近最少使用的条目开始，让使用它们的 BorderDrawable 释放位图，空出 bytes 字节后停止
+     */
+    private static void releaseDrawables(boolean all, int bytes) {
+        NinePatchCache cache = NinePatchCache.getInstance();
+        ArrayList<NinePatchCache.Entry> entries = sInUseEntries;
+        cache.collectInUse(entries);
+        int released = 0;
+        for (int i = 0; i < entries.size() && released < bytes; i++) {
+            NinePatchCache.Entry entry = entries.get(i);
+            ArrayList<WeakReference<BorderDrawable>> holders = entry.holders;
+            // trimBitmap 会把自己从 holders 里移除
+            for (int j = holders.size() - 1; j >= 0; j--) {
+                if (j >= holders.size()) {
+                    continue;
+                }
+                BorderDrawable drawable = holders.get(j).get();
+                if (drawable == null) {
+                    // 没有释放位图就被回收了，替它归还引用
+                    holders.remove(j);
+                    cache.release(entry);
+                } else if (all || isOffscreen(drawable)) {
+                    drawable.trimBitmap();
+                }
+            }
+            if (!cache.isInUse(entry)) {
+                released += entry.byteCount;
+            }
+        }
+        entries.clear();
+    }
+
+    private static boolean isOffscreen(Drawable drawable) {
+        if (!drawable.isVisible()) {
+            return true;
+        }
+        Drawable.Callback callback = drawable.getCallback();
+        // 包在其他 Drawable 里时，找到最外面的 View
+        while (callback instanceof Drawable) {
+            Drawable parent = (Drawable) callback;
+            if (!parent.isVisible()) {
+                return true;
+            }
+            callback = parent.getCallback();
+        }
+        if (!(callback instanceof View)) {
+            // 没有 Callback 说明已经不在 View 上了
+            return callback == null;
+        }
+        // 回收之后仍然 attach 着的 View（隐藏的或者滚出屏幕的列表项）不在可见区域里
+        View view = (View) callback;
+        return !view.isShown() || !view.getGlobalVisibleRect(sVisibleRect);
+    }
+}
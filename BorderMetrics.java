@@ -0,0 +1,201 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nullable;
+
+/**
+ * 渲染统计。安装 Listener 后可以收到每次 update() 选择的渲染方式和耗时、位图的分配和释放、
+ * 缓存和复用的情况；没有安装时每个统计点只有一次 volatile 读。
+ * 回调可能来自工作线程（异步光栅化），实现需要线程安全。
+ */
+public final class BorderMetrics {
+
+    // update() 选择的渲染方式，前五种与 BorderStyle 的 RENDER_* 相同
+    public static final int TIER_NONE = BorderStyle.RENDER_NONE;
+    public static final int TIER_COLOR = BorderStyle.RENDER_COLOR;
+    public static final int TIER_GRADIENT = BorderStyle.RENDER_GRADIENT;
+    public static final int TIER_LAYER = BorderStyle.RENDER_LAYER;
+    public static final int TIER_NINE_PATCH = BorderStyle.RENDER_NINE_PATCH;
+    // 需要光栅化的样式改为在 draw 时直接画路径
+    public static final int TIER_DIRECT = 5;
+    private static final int TIER_COUNT = 6;
+
+    // 内存缓存命中和未命中
+    public static final int EVENT_CACHE_HIT = 0;
+    public static final int EVENT_CACHE_MISS = 1;
+    // 从磁盘缓存读取，没有光栅化
+    public static final int EVENT_DISK_HIT = 2;
+    // 完整地光栅化了一次
+    public static final int EVENT_RASTERIZE = 3;
+    // 只有颜色变化，在原来的位图上重绘
+    public static final int EVENT_REPAINT = 4;
+    // 从位图池复用了位图
+    public static final int EVENT_POOL_REUSE = 5;
+    private static final int EVENT_COUNT = 6;
+
+    private static final String[] TIER_NAMES = new String[]{
+            "none", "color", "gradient", "layer", "ninePatch", "direct"};
+    private static final String[] EVENT_NAMES = new String[]{
+            "cacheHit", "cacheMiss", "diskHit", "rasterize", "repaint", "poolReuse"};
+
+    public interface Listener {
+        /**
+         * 一次 update() 完成，durationNanos 不包括异步光栅化的时间
+         */
+        void onUpdate(int tier, long durationNanos);
+
+        void onBitmapAllocated(int byteCount);
+
+        void onBitmapFreed(int byteCount);
+
+        void onEvent(int event);
+    }
+
+    @Nullable
+    private static volatile Listener sListener;
+
+    private BorderMetrics() {
+    }
+
+    public static void setListener(@Nullable Listener listener) {
+        sListener = listener;
+    }
+
+    @Nullable
+    public static Listener getListener() {
+        return sListener;
+    }
+
+    static void notifyBitmapAllocated(int byteCount) {
+        Listener listener = sListener;
+        if (listener != null) {
+            listener.onBitmapAllocated(byteCount);
+        }
+    }
+
+    static void notifyBitmapFreed(int byteCount) {
+        Listener listener = sListener;
+        if (listener != null) {
+            listener.onBitmapFreed(byteCount);
+        }
+    }
+
+    static void notifyEvent(int event) {
+        Listener listener = sListener;
+        if (listener != null) {
+            listener.onEvent(event);
+        }
+    }
+
+    public static String tierName(int tier) {
+        return TIER_NAMES[tier];
+    }
+
+    public static String eventName(int event) {
+        return EVENT_NAMES[event];
+    }
+
+    /**
+     * 累计各项数据的 Listener，可以随时读取或者导出
+     */
+    public static class Counters implements Listener {
+        private static final int INDEX_TIER_COUNT = 0;
+        private static final int INDEX_TIER_NANOS = INDEX_TIER_COUNT + TIER_COUNT;
+        private static final int INDEX_TIER_MAX_NANOS = INDEX_TIER_NANOS + TIER_COUNT;
+        private static final int INDEX_EVENT = INDEX_TIER_MAX_NANOS + TIER_COUNT;
+        private static final int INDEX_ALLOCATED_COUNT = INDEX_EVENT + EVENT_COUNT;
+        private static final int INDEX_ALLOCATED_BYTES = INDEX_ALLOCATED_COUNT + 1;
+        private static final int INDEX_FREED_COUNT = INDEX_ALLOCATED_BYTES + 1;
+        private static final int INDEX_FREED_BYTES = INDEX_FREED_COUNT + 1;
+        private static final int SIZE = INDEX_FREED_BYTES + 1;
+
+        private final AtomicLongArray mValues = new AtomicLongArray(SIZE);
+
+        @Override
+        public void onUpdate(int tier, long durationNanos) {
+            mValues.incrementAndGet(INDEX_TIER_COUNT + tier);
+            mValues.addAndGet(INDEX_TIER_NANOS + tier, durationNanos);
+            int index = INDEX_TIER_MAX_NANOS + tier;
+            long max;
+            do {
+                max = mValues.get(index);
+            } while (durationNanos > max && !mValues.compareAndSet(index, max, durationNanos));
+        }
+
+        @Override
+        public void onBitmapAllocated(int byteCount) {
+            mValues.incrementAndGet(INDEX_ALLOCATED_COUNT);
+            mValues.addAndGet(INDEX_ALLOCATED_BYTES, byteCount);
+        }
+
+        @Override
+        public void onBitmapFreed(int byteCount) {
+            mValues.incrementAndGet(INDEX_FREED_COUNT);
+            mValues.addAndGet(INDEX_FREED_BYTES, byteCount);
+        }
+
+        @Override
+        public void onEvent(int event) {
+            mValues.incrementAndGet(INDEX_EVENT + event);
+        }
+
+        public long getTierCount(int tier) {
+            return mValues.get(INDEX_TIER_COUNT + tier);
+        }
+
+        public long getTierNanos(int tier) {
+            return mValues.get(INDEX_TIER_NANOS + tier);
+        }
+
+        public long getTierMaxNanos(int tier) {
+            return mValues.get(INDEX_TIER_MAX_NANOS + tier);
+        }
+
+        public long getEventCount(int event) {
+            return mValues.get(INDEX_EVENT + event);
+        }
+
+        public long getAllocatedBitmapCount() {
+            return mValues.get(INDEX_ALLOCATED_COUNT);
+        }
+
+        public long getAllocatedBitmapBytes() {
+            return mValues.get(INDEX_ALLOCATED_BYTES);
+        }
+
+        public long getFreedBitmapCount() {
+            return mValues.get(INDEX_FREED_COUNT);
+        }
+
+        public long getFreedBitmapBytes() {
+            return mValues.get(INDEX_FREED_BYTES);
+        }
+
+        public void reset() {
+            for (int i = 0; i < SIZE; i++) {
+                mValues.set(i, 0);
+            }
+        }
+
+        /**
+         * 导出为 "名称=值" 的列表，方便上报
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("BorderMetrics[");
+            for (int tier = 0; tier < TIER_COUNT; tier++) {
+                builder.append(TIER_NAMES[tier])
+                        .append("=").append(getTierCount(tier))
+                        .append("/").append(getTierNanos(tier) / 1000).append("us")
+                        .append("/max").append(getTierMaxNanos(tier) / 1000).append("us,");
+            }
+            for (int event = 0; event < EVENT_COUNT; event++) {
+                builder.append(EVENT_NAMES[event]).append("=").append(getEventCount(event)).append(",");
+            }
+            builder.append("allocated=").append(getAllocatedBitmapCount())
+                    .append("/").append(getAllocatedBitmapBytes()).append("B,")
+                    .append("freed=").append(getFreedBitmapCount())
+                    .append("/").append(getFreedBitmapBytes()).append("B]");
+            return builder.toString();
+        }
+    }
+}
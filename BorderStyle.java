@@ -0,0 +1,509 @@
+import android.graphics.Color;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * 解析后的边框样式，不可变且全局唯一（interned）。
+ * 相同的样式一定是同一个对象，所以可以直接用 == 比较。
+ * 创建时就完成了渲染方式的判断，BorderDrawable 在样式没变的时候不需要再做任何计算。
+ * 动画的中间帧不是 BorderStyle，见 FrameStyle。
+ */
+public final class BorderStyle {
+
+    // 没有背景也没有边框，不需要渲染
+    static final int RENDER_NONE = 0;
+    // ColorDrawable
+    static final int RENDER_COLOR = 1;
+    // 单个 GradientDrawable
+    static final int RENDER_GRADIENT = 2;
+    // 两个 GradientDrawable 叠加的 LayerDrawable
+    static final int RENDER_LAYER = 3;
+    // 光栅化的 NinePatchDrawable
+    static final int RENDER_NINE_PATCH = 4;
+
+    private static final WeakHashMap<BorderStyle, WeakReference<BorderStyle>> sPool =
+            new WeakHashMap<BorderStyle, WeakReference<BorderStyle>>();
+
+    public final float topWidth;
+    public final float rightWidth;
+    public final float bottomWidth;
+    public final float leftWidth;
+
+    public final int topColor;
+    public final int rightColor;
+    public final int bottomColor;
+    public final int leftColor;
+
+    public final float topLeftRadius;
+    public final float topRightRadius;
+    public final float bottomRightRadius;
+    public final float bottomLeftRadius;
+
+    public final int backgroundColor;
+
+    // 线型，BorderDrawable.BORDER_STYLE_*
+    public final int topStyle;
+    public final int rightStyle;
+    public final int bottomStyle;
+    public final int leftStyle;
+
+    // 有没有可见的虚线或点线边框
+    final boolean hasPatternedSides;
+
+    // 有没有背景颜色
+    final boolean hasBackground;
+    // 背景颜色是否为实心
+    final boolean backgroundIsSolid;
+    // 是否有边框
+    final boolean hasBorderInsets;
+    // 边框宽度是否相等
+    final boolean borderInsetsAreEqual;
+    // 边框颜色是否相同
+    final boolean borderColorsAreEqual;
+    // 左边框是否为实色
+    final boolean borderLeftIsSolid;
+    // 四条边是否都有宽度且都是实色
+    final boolean borderIsOpaque;
+    // 是否有圆角
+    final boolean hasCornerRadii;
+
+    final int renderType;
+
+    // 有宽度的边框颜色都相同的 NinePatch 样式只光栅化为 ALPHA_8 遮罩，绘制时用 Paint 的颜色着色，
+    // 位图只有 ARGB_8888 的 1/4，不同颜色的样式共用同一份遮罩
+    final boolean useAlphaMask;
+    // 有宽度且不透明的边框颜色都相同，可以用 getBorderMask 着色得到
+    final boolean visibleBorderColorsAreEqual;
+    // 可见边框的颜色，没有可见边框时为透明
+    final int visibleBorderColor;
+
+    // 遮罩对应的样式，只保留几何信息，用到时才创建
+    @Nullable
+    private BorderStyle mBorderMask;
+    @Nullable
+    private BorderStyle mBackgroundMask;
+
+    private final int mHashCode;
+
+    private BorderStyle(Builder builder) {
+        topWidth = builder.mTopWidth;
+        rightWidth = builder.mRightWidth;
+        bottomWidth = builder.mBottomWidth;
+        leftWidth = builder.mLeftWidth;
+        topColor = builder.mTopColor;
+        rightColor = builder.mRightColor;
+        bottomColor = builder.mBottomColor;
+        leftColor = builder.mLeftColor;
+        topLeftRadius = builder.mTopLeftRadius;
+        topRightRadius = builder.mTopRightRadius;
+        bottomRightRadius = builder.mBottomRightRadius;
+        bottomLeftRadius = builder.mBottomLeftRadius;
+        backgroundColor = builder.mBackgroundColor;
+        topStyle = builder.mTopStyle;
+        rightStyle = builder.mRightStyle;
+        bottomStyle = builder.mBottomStyle;
+        leftStyle = builder.mLeftStyle;
+        mHashCode = builder.hashCode();
+
+        int backgroundAlpha = Color.alpha(backgroundColor);
+        hasBackground = backgroundAlpha > 0;
+        backgroundIsSolid = backgroundAlpha == BorderDrawable.ALPHA_SOLID;
+
+        hasBorderInsets = topWidth > BorderDrawable.BORDER_THRESHOLD ||
+                rightWidth > BorderDrawable.BORDER_THRESHOLD ||
+                bottomWidth > BorderDrawable.BORDER_THRESHOLD ||
+                leftWidth > BorderDrawable.BORDER_THRESHOLD;
+
+        borderInsetsAreEqual = BorderDrawable.floatEquals(leftWidth, topWidth) &&
+                BorderDrawable.floatEquals(leftWidth, rightWidth) &&
+                BorderDrawable.floatEquals(leftWidth, bottomWidth);
+
+        borderColorsAreEqual = BorderDrawable.colorEquals(leftColor, topColor) &&
+                BorderDrawable.colorEquals(leftColor, rightColor) &&
+                BorderDrawable.colorEquals(leftColor, bottomColor);
+
+        borderLeftIsSolid = Color.alpha(leftColor) == BorderDrawable.ALPHA_SOLID;
+
+        borderIsOpaque = topWidth > BorderDrawable.BORDER_THRESHOLD &&
+                rightWidth > BorderDrawable.BORDER_THRESHOLD &&
+                bottomWidth > BorderDrawable.BORDER_THRESHOLD &&
+                leftWidth > BorderDrawable.BORDER_THRESHOLD &&
+                Color.alpha(topColor) == BorderDrawable.ALPHA_SOLID &&
+                Color.alpha(rightColor) == BorderDrawable.ALPHA_SOLID &&
+                Color.alpha(bottomColor) == BorderDrawable.ALPHA_SOLID &&
+                Color.alpha(leftColor) == BorderDrawable.ALPHA_SOLID;
+
+        hasCornerRadii = topLeftRadius > BorderDrawable.BORDER_THRESHOLD ||
+                topRightRadius > BorderDrawable.BORDER_THRESHOLD ||
+                bottomLeftRadius > BorderDrawable.BORDER_THRESHOLD ||
+                bottomRightRadius > BorderDrawable.BORDER_THRESHOLD;
+
+        hasPatternedSides = isPatterned(topWidth, topColor, topStyle) ||
+                isPatterned(rightWidth, rightColor, rightStyle) ||
+                isPatterned(bottomWidth, bottomColor, bottomStyle) ||
+                isPatterned(leftWidth, leftColor, leftStyle);
+
+        if (!hasBackground && !hasBorderInsets) {
+            renderType = RENDER_NONE;
+        } else if (hasBackground && !hasBorderInsets && !hasCornerRadii) {
+            renderType = RENDER_COLOR;
+        } else if (hasPatternedSides) {
+            // 虚线和点线的直边部分在 draw 时用平铺的图案绘制，其余部分仍然光栅化
+            renderType = RENDER_NINE_PATCH;
+        } else if (!hasCornerRadii &&
+                borderInsetsAreEqual &&
+                borderColorsAreEqual &&
+                (borderLeftIsSolid || !hasBackground)) {
+            renderType = RENDER_GRADIENT;
+        } else if (borderColorsAreEqual && borderLeftIsSolid && backgroundIsSolid) {
+            renderType = RENDER_LAYER;
+        } else {
+            renderType = RENDER_NINE_PATCH;
+        }
+
+        // 不可见的边按透明处理，第一条可见的边的颜色与其他可见的边比较
+        int top = visibleColor(topWidth, topColor);
+        int right = visibleColor(rightWidth, rightColor);
+        int bottom = visibleColor(bottomWidth, bottomColor);
+        int left = visibleColor(leftWidth, leftColor);
+        int borderColor = Color.alpha(top) != 0 ? top
+                : Color.alpha(right) != 0 ? right
+                : Color.alpha(bottom) != 0 ? bottom
+                : left;
+        boolean visibleColorsAreEqual = isTransparentOr(top, borderColor) &&
+                isTransparentOr(right, borderColor) &&
+                isTransparentOr(bottom, borderColor) &&
+                isTransparentOr(left, borderColor);
+        visibleBorderColor = borderColor;
+        visibleBorderColorsAreEqual = visibleColorsAreEqual;
+        useAlphaMask = renderType == RENDER_NINE_PATCH && visibleColorsAreEqual;
+    }
+
+    static int visibleColor(float width, int color) {
+        return isVisible(width, color) ? color : Color.TRANSPARENT;
+    }
+
+    private static boolean isTransparentOr(int color, int expected) {
+        return Color.alpha(color) == 0 || color == expected;
+    }
+
+    static boolean isVisible(float width, int color) {
+        return width > BorderDrawable.BORDER_THRESHOLD && Color.alpha(color) > 0;
+    }
+
+    private static boolean isPatterned(float width, int color, int style) {
+        return style != BorderDrawable.BORDER_STYLE_SOLID && isVisible(width, color);
+    }
+
+    /**
+     * 可见边框部分的遮罩：可见的边为黑色，其他边透明，没有背景。没有可见边框时返回 null
+     */
+    @Nullable
+    BorderStyle getBorderMask() {
+        if (Color.alpha(visibleBorderColor) == 0) {
+            return null;
+        }
+        BorderStyle mask = mBorderMask;
+        if (mask == null) {
+            mask = newMaskBuilder()
+                    .setBorderColors(
+                            isVisible(topWidth, topColor) ? Color.BLACK : Color.TRANSPARENT,
+                            isVisible(rightWidth, rightColor) ? Color.BLACK : Color.TRANSPARENT,
+                            isVisible(bottomWidth, bottomColor) ? Color.BLACK : Color.TRANSPARENT,
+                            isVisible(leftWidth, leftColor) ? Color.BLACK : Color.TRANSPARENT)
+                    .setBorderStyles(topStyle, rightStyle, bottomStyle, leftStyle)
+                    .build();
+            // 样式是驻留的，并发时得到的也是同一个对象
+            mBorderMask = mask;
+        }
+        return mask;
+    }
+
+    /**
+     * 背景部分的遮罩：边框透明，背景为黑色，覆盖整个外框。没有背景时返回 null
+     */
+    @Nullable
+    BorderStyle getBackgroundMask() {
+        return hasBackground ? getShapeMask() : null;
+    }
+
+    /**
+     * 外框形状的遮罩，与 getBackgroundMask 相同，但是不管有没有背景
+     */
+    BorderStyle getShapeMask() {
+        BorderStyle mask = mBackgroundMask;
+        if (mask == null) {
+            mask = newMaskBuilder()
+                    .setBorderColors(Color.TRANSPARENT, Color.TRANSPARENT, Color.TRANSPARENT, Color.TRANSPARENT)
+                    .setBackgroundColor(Color.BLACK)
+                    .build();
+            mBackgroundMask = mask;
+        }
+        return mask;
+    }
+
+    // 几何信息与当前样式相同，保证遮罩的尺寸和 chunk 一致
+    private Builder newMaskBuilder() {
+        return new Builder()
+                .setBorderWidths(topWidth, rightWidth, bottomWidth, leftWidth)
+                .setBorderRadii(topLeftRadius, topRightRadius, bottomRightRadius, bottomLeftRadius)
+                .setBackgroundColor(Color.TRANSPARENT);
+    }
+
+    /**
+     * 边框宽度、圆角和线型都相同，只有颜色不同的两个样式，生成的路径、位图尺寸和 chunk 也都相同
+     */
+    boolean hasSameGeometry(BorderStyle style) {
+        return topStyle == style.topStyle &&
+                rightStyle == style.rightStyle &&
+                bottomStyle == style.bottomStyle &&
+                leftStyle == style.leftStyle &&
+                Float.compare(topWidth, style.topWidth) == 0 &&
+                Float.compare(rightWidth, style.rightWidth) == 0 &&
+                Float.compare(bottomWidth, style.bottomWidth) == 0 &&
+                Float.compare(leftWidth, style.leftWidth) == 0 &&
+                Float.compare(topLeftRadius, style.topLeftRadius) == 0 &&
+                Float.compare(topRightRadius, style.topRightRadius) == 0 &&
+                Float.compare(bottomRightRadius, style.bottomRightRadius) == 0 &&
+                Float.compare(bottomLeftRadius, style.bottomLeftRadius) == 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof BorderStyle) {
+            BorderStyle style = (BorderStyle) o;
+            return mHashCode == style.mHashCode &&
+                    Float.compare(topWidth, style.topWidth) == 0 &&
+                    Float.compare(rightWidth, style.rightWidth) == 0 &&
+                    Float.compare(bottomWidth, style.bottomWidth) == 0 &&
+                    Float.compare(leftWidth, style.leftWidth) == 0 &&
+                    topColor == style.topColor &&
+                    rightColor == style.rightColor &&
+                    bottomColor == style.bottomColor &&
+                    leftColor == style.leftColor &&
+                    Float.compare(topLeftRadius, style.topLeftRadius) == 0 &&
+                    Float.compare(topRightRadius, style.topRightRadius) == 0 &&
+                    Float.compare(bottomRightRadius, style.bottomRightRadius) == 0 &&
+                    Float.compare(bottomLeftRadius, style.bottomLeftRadius) == 0 &&
+                    backgroundColor == style.backgroundColor &&
+                    topStyle == style.topStyle &&
+                    rightStyle == style.rightStyle &&
+                    bottomStyle == style.bottomStyle &&
+                    leftStyle == style.leftStyle;
+        }
+        // 在池里查找的时候 Builder 会被当作探针使用
+        return o instanceof Builder && o.equals(this);
+    }
+
+    @Override
+    public int hashCode() {
+        return mHashCode;
+    }
+
+    static float lerp(float from, float to, float fraction) {
+        return from + (to - from) * fraction;
+    }
+
+    // 按预乘的分量插值，渐变到透明或者从透明渐变时颜色不变，只有透明度变化，不会经过灰色
+    static int lerpColor(int from, int to, float fraction) {
+        float fromAlpha = Color.alpha(from) / 255f;
+        float toAlpha = Color.alpha(to) / 255f;
+        float alpha = lerp(fromAlpha, toAlpha, fraction);
+        if (alpha <= 0) {
+            return Color.TRANSPARENT;
+        }
+        return Color.argb(
+                Math.round(alpha * 255),
+                lerpPremultiplied(Color.red(from), fromAlpha, Color.red(to), toAlpha, fraction, alpha),
+                lerpPremultiplied(Color.green(from), fromAlpha, Color.green(to), toAlpha, fraction, alpha),
+                lerpPremultiplied(Color.blue(from), fromAlpha, Color.blue(to), toAlpha, fraction, alpha));
+    }
+
+    private static int lerpPremultiplied(int from, float fromAlpha, int to, float toAlpha,
+                                         float fraction, float alpha) {
+        float value = lerp(from * fromAlpha, to * toAlpha, fraction) / alpha;
+        return Math.min(255, Math.round(value));
+    }
+
+    /**
+     * 可以重复使用的样式构造器，build() 时才会到池里查找或者创建样式
+     */
+    public static final class Builder {
+        private float mTopWidth;
+        private float mRightWidth;
+        private float mBottomWidth;
+        private float mLeftWidth;
+
+        private int mTopColor = Color.BLACK;
+        private int mRightColor = Color.BLACK;
+        private int mBottomColor = Color.BLACK;
+        private int mLeftColor = Color.BLACK;
+
+        private float mTopLeftRadius;
+        private float mTopRightRadius;
+        private float mBottomRightRadius;
+        private float mBottomLeftRadius;
+
+        private int mBackgroundColor = Color.TRANSPARENT;
+
+        private int mTopStyle = BorderDrawable.BORDER_STYLE_SOLID;
+        private int mRightStyle = BorderDrawable.BORDER_STYLE_SOLID;
+        private int mBottomStyle = BorderDrawable.BORDER_STYLE_SOLID;
+        private int mLeftStyle = BorderDrawable.BORDER_STYLE_SOLID;
+
+        public Builder() {
+        }
+
+        public Builder(BorderStyle style) {
+            setBorderWidths(style.topWidth, style.rightWidth, style.bottomWidth, style.leftWidth);
+            setBorderColors(style.topColor, style.rightColor, style.bottomColor, style.leftColor);
+            setBorderRadii(style.topLeftRadius, style.topRightRadius, style.bottomRightRadius, style.bottomLeftRadius);
+            setBackgroundColor(style.backgroundColor);
+            setBorderStyles(style.topStyle, style.rightStyle, style.bottomStyle, style.leftStyle);
+        }
+
+        public Builder setBorderWidths(float top, float right, float bottom, float left) {
+            mTopWidth = normalizeFloat(top);
+            mRightWidth = normalizeFloat(right);
+            mBottomWidth = normalizeFloat(bottom);
+            mLeftWidth = normalizeFloat(left);
+            return this;
+        }
+
+        public Builder setBorderColors(int top, int right, int bottom, int left) {
+            mTopColor = normalizeColor(top);
+            mRightColor = normalizeColor(right);
+            mBottomColor = normalizeColor(bottom);
+            mLeftColor = normalizeColor(left);
+            return this;
+        }
+
+        public Builder setBorderRadii(float topLeft, float topRight, float bottomRight, float bottomLeft) {
+            mTopLeftRadius = normalizeFloat(topLeft);
+            mTopRightRadius = normalizeFloat(topRight);
+            mBottomRightRadius = normalizeFloat(bottomRight);
+            mBottomLeftRadius = normalizeFloat(bottomLeft);
+            return this;
+        }
+
+        public Builder setBackgroundColor(int color) {
+            mBackgroundColor = normalizeColor(color);
+            return this;
+        }
+
+        /**
+         * 线型是 BorderDrawable.BORDER_STYLE_*，其他值抛出 IllegalArgumentException
+         */
+        public Builder setBorderStyles(int top, int right, int bottom, int left) {
+            BorderDrawable.checkBorderStyle(top);
+            BorderDrawable.checkBorderStyle(right);
+            BorderDrawable.checkBorderStyle(bottom);
+            BorderDrawable.checkBorderStyle(left);
+            mTopStyle = top;
+            mRightStyle = right;
+            mBottomStyle = bottom;
+            mLeftStyle = left;
+            return this;
+        }
+
+        /**
+         * 设置为 from 到 to 之间的中间值，fraction 为 0 时等于 from，为 1 时等于 to。
+         * 宽度和圆角线性插值，颜色按预乘的分量插值，线型直接取 to 的
+         */
+        public Builder setInterpolated(BorderStyle from, BorderStyle to, float fraction) {
+            setBorderWidths(
+                    lerp(from.topWidth, to.topWidth, fraction),
+                    lerp(from.rightWidth, to.rightWidth, fraction),
+                    lerp(from.bottomWidth, to.bottomWidth, fraction),
+                    lerp(from.leftWidth, to.leftWidth, fraction));
+            setBorderColors(
+                    lerpColor(from.topColor, to.topColor, fraction),
+                    lerpColor(from.rightColor, to.rightColor, fraction),
+                    lerpColor(from.bottomColor, to.bottomColor, fraction),
+                    lerpColor(from.leftColor, to.leftColor, fraction));
+            setBorderRadii(
+                    lerp(from.topLeftRadius, to.topLeftRadius, fraction),
+                    lerp(from.topRightRadius, to.topRightRadius, fraction),
+                    lerp(from.bottomRightRadius, to.bottomRightRadius, fraction),
+                    lerp(from.bottomLeftRadius, to.bottomLeftRadius, fraction));
+            setBackgroundColor(lerpColor(from.backgroundColor, to.backgroundColor, fraction));
+            setBorderStyles(to.topStyle, to.rightStyle, to.bottomStyle, to.leftStyle);
+            return this;
+        }
+
+        /**
+         * 返回池里与当前值相同的样式，没有的话创建一个放进池里
+         */
+        public BorderStyle build() {
+            synchronized (sPool) {
+                WeakReference<BorderStyle> ref = sPool.get(this);
+                BorderStyle style = ref != null ? ref.get() : null;
+                if (style == null) {
+                    style = new BorderStyle(this);
+                    sPool.put(style, new WeakReference<BorderStyle>(style));
+                }
+                return style;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BorderStyle)) {
+                return false;
+            }
+            BorderStyle style = (BorderStyle) o;
+            return Float.compare(mTopWidth, style.topWidth) == 0 &&
+                    Float.compare(mRightWidth, style.rightWidth) == 0 &&
+                    Float.compare(mBottomWidth, style.bottomWidth) == 0 &&
+                    Float.compare(mLeftWidth, style.leftWidth) == 0 &&
+                    mTopColor == style.topColor &&
+                    mRightColor == style.rightColor &&
+                    mBottomColor == style.bottomColor &&
+                    mLeftColor == style.leftColor &&
+                    Float.compare(mTopLeftRadius, style.topLeftRadius) == 0 &&
+                    Float.compare(mTopRightRadius, style.topRightRadius) == 0 &&
+                    Float.compare(mBottomRightRadius, style.bottomRightRadius) == 0 &&
+                    Float.compare(mBottomLeftRadius, style.bottomLeftRadius) == 0 &&
+                    mBackgroundColor == style.backgroundColor &&
+                    mTopStyle == style.topStyle &&
+                    mRightStyle == style.rightStyle &&
+                    mBottomStyle == style.bottomStyle &&
+                    mLeftStyle == style.leftStyle;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Float.floatToIntBits(mTopWidth);
+            result = 31 * result + Float.floatToIntBits(mRightWidth);
+            result = 31 * result + Float.floatToIntBits(mBottomWidth);
+            result = 31 * result + Float.floatToIntBits(mLeftWidth);
+            result = 31 * result + mTopColor;
+            result = 31 * result + mRightColor;
+            result = 31 * result + mBottomColor;
+            result = 31 * result + mLeftColor;
+            result = 31 * result + Float.floatToIntBits(mTopLeftRadius);
+            result = 31 * result + Float.floatToIntBits(mTopRightRadius);
+            result = 31 * result + Float.floatToIntBits(mBottomRightRadius);
+            result = 31 * result + Float.floatToIntBits(mBottomLeftRadius);
+            result = 31 * result + mBackgroundColor;
+            result = 31 * result + (mTopStyle | mRightStyle << 2 | mBottomStyle << 4 | mLeftStyle << 6);
+            return result;
+        }
+
+        // -0f 和 0f 视为相同
+        private static float normalizeFloat(float value) {
+            return value == 0f ? 0f : value;
+        }
+
+        // 完全透明的颜色都视为相同，与 colorEquals 保持一致
+        private static int normalizeColor(int color) {
+            return Color.alpha(color) == 0 ? Color.TRANSPARENT : color;
+        }
+    }
+}
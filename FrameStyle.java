@@ -0,0 +1,90 @@
+import android.graphics.Color;
+
+/**
+ * 动画中间帧的样式，由 BorderDrawable 持有，每一帧重新赋值，不需要创建新对象。
+ * BorderStyle 是驻留的、用作各个缓存的键，所以中间帧不是 BorderStyle，也不会交给 BorderDrawable 以外的代码。
+ * 字段的含义与 BorderStyle 相同，只保留绘制中间帧用到的部分
+ */
+final class FrameStyle {
+
+    float topWidth;
+    float rightWidth;
+    float bottomWidth;
+    float leftWidth;
+
+    int topColor;
+    int rightColor;
+    int bottomColor;
+    int leftColor;
+
+    float topLeftRadius;
+    float topRightRadius;
+    float bottomRightRadius;
+    float bottomLeftRadius;
+
+    int backgroundColor;
+
+    // 有没有背景颜色
+    boolean hasBackground;
+    // 背景颜色是否为实心
+    boolean backgroundIsSolid;
+    // 是否有边框
+    boolean hasBorderInsets;
+    // 四条边是否都有宽度且都是实色
+    boolean borderIsOpaque;
+    // 是否有圆角
+    boolean hasCornerRadii;
+    // 第一条可见边框的颜色，没有可见边框时为透明
+    int visibleBorderColor;
+
+    /**
+     * 设置为 from 到 to 之间的中间值，插值方式与 BorderStyle.Builder.setInterpolated 相同
+     */
+    void setInterpolated(BorderStyle from, BorderStyle to, float fraction) {
+        topWidth = BorderStyle.lerp(from.topWidth, to.topWidth, fraction);
+        rightWidth = BorderStyle.lerp(from.rightWidth, to.rightWidth, fraction);
+        bottomWidth = BorderStyle.lerp(from.bottomWidth, to.bottomWidth, fraction);
+        leftWidth = BorderStyle.lerp(from.leftWidth, to.leftWidth, fraction);
+        topColor = BorderStyle.lerpColor(from.topColor, to.topColor, fraction);
+        rightColor = BorderStyle.lerpColor(from.rightColor, to.rightColor, fraction);
+        bottomColor = BorderStyle.lerpColor(from.bottomColor, to.bottomColor, fraction);
+        leftColor = BorderStyle.lerpColor(from.leftColor, to.leftColor, fraction);
+        topLeftRadius = BorderStyle.lerp(from.topLeftRadius, to.topLeftRadius, fraction);
+        topRightRadius = BorderStyle.lerp(from.topRightRadius, to.topRightRadius, fraction);
+        bottomRightRadius = BorderStyle.lerp(from.bottomRightRadius, to.bottomRightRadius, fraction);
+        bottomLeftRadius = BorderStyle.lerp(from.bottomLeftRadius, to.bottomLeftRadius, fraction);
+        backgroundColor = BorderStyle.lerpColor(from.backgroundColor, to.backgroundColor, fraction);
+
+        int backgroundAlpha = Color.alpha(backgroundColor);
+        hasBackground = backgroundAlpha > 0;
+        backgroundIsSolid = backgroundAlpha == BorderDrawable.ALPHA_SOLID;
+
+        hasBorderInsets = topWidth > BorderDrawable.BORDER_THRESHOLD ||
+                rightWidth > BorderDrawable.BORDER_THRESHOLD ||
+                bottomWidth > BorderDrawable.BORDER_THRESHOLD ||
+                leftWidth > BorderDrawable.BORDER_THRESHOLD;
+
+        borderIsOpaque = isSolid(topWidth, topColor) &&
+                isSolid(rightWidth, rightColor) &&
+                isSolid(bottomWidth, bottomColor) &&
+                isSolid(leftWidth, leftColor);
+
+        hasCornerRadii = topLeftRadius > BorderDrawable.BORDER_THRESHOLD ||
+                topRightRadius > BorderDrawable.BORDER_THRESHOLD ||
+                bottomLeftRadius > BorderDrawable.BORDER_THRESHOLD ||
+                bottomRightRadius > BorderDrawable.BORDER_THRESHOLD;
+
+        int top = BorderStyle.visibleColor(topWidth, topColor);
+        int right = BorderStyle.visibleColor(rightWidth, rightColor);
+        int bottom = BorderStyle.visibleColor(bottomWidth, bottomColor);
+        int left = BorderStyle.visibleColor(leftWidth, leftColor);
+        visibleBorderColor = Color.alpha(top) != 0 ? top
+                : Color.alpha(right) != 0 ? right
+                : Color.alpha(bottom) != 0 ? bottom
+                : left;
+    }
+
+    private static boolean isSolid(float width, int color) {
+        return width > BorderDrawable.BORDER_THRESHOLD && Color.alpha(color) == BorderDrawable.ALPHA_SOLID;
+    }
+}
@@ -0,0 +1,234 @@
+import android.graphics.Bitmap;
+import android.graphics.NinePatch;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * 进程内共享的 NinePatch 缓存，以 BorderStyle 为键。
+ * 相同边框样式的 BorderDrawable 共用同一张位图和同一份 chunk，
+ * BorderClipDrawable 的圆角位图也放在这里，以 BorderClipDrawable.TileKey 为键，没有 chunk。
+ * 条目按引用计数管理，只有空闲（没有 BorderDrawable 在使用）的条目才会按 LRU 淘汰。
+ */
+public final class NinePatchCache {
+
+    // 默认缓存 4MB 的位图
+    private static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    private static final NinePatchCache sInstance = new NinePatchCache(DEFAULT_MAX_SIZE);
+
+    public static NinePatchCache getInstance() {
+        return sInstance;
+    }
+
+    // accessOrder 为 true，迭代顺序即为最近最少使用的顺序
+    private final LinkedHashMap<Object, Entry> mEntries = new LinkedHashMap<Object, Entry>(0, 0.75f, true);
+
+    private int mSize;
+    private int mMaxSize;
+
+    @Nullable
+    private volatile NinePatchDiskCache mDiskCache;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+
+    private NinePatchCache(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 设置持久化缓存，内存里没有的样式会先到磁盘缓存里找，新光栅化的位图也会写入磁盘缓存
+     */
+    public void setDiskCache(@Nullable NinePatchDiskCache diskCache) {
+        mDiskCache = diskCache;
+    }
+
+    @Nullable
+    public NinePatchDiskCache getDiskCache() {
+        return mDiskCache;
+    }
+
+    /**
+     * 键是否已经在缓存里，不影响 LRU 的顺序和命中率的统计
+     */
+    synchronized boolean contains(Object key) {
+        return mEntries.containsKey(key);
+    }
+
+    /**
+     * 查找键对应的条目，找到的话引用计数加一
+     */
+    synchronized Entry acquire(Object key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            BorderMetrics.notifyEvent(BorderMetrics.EVENT_CACHE_MISS);
+            return null;
+        }
+        mHitCount++;
+        BorderMetrics.notifyEvent(BorderMetrics.EVENT_CACHE_HIT);
+        entry.refCount++;
+        return entry;
+    }
+
+    /**
+     * 放入新生成的位图，返回的条目引用计数已经加一。
+     * 如果同样的键已经在缓存里了，则丢弃新位图，直接返回已有的条目
+     */
+    synchronized Entry put(Object key, Bitmap bitmap, @Nullable byte[] chunk, String name) {
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            BitmapPool.getInstance().put(bitmap);
+        } else {
+            entry = new Entry(key, bitmap, chunk, name);
+            mEntries.put(key, entry);
+            mSize += entry.byteCount;
+            mPutCount++;
+        }
+        entry.refCount++;
+        trimToSize(mMaxSize);
+        return entry;
+    }
+
+    /**
+     * 只有一个 BorderDrawable 在使用条目、并且缓存里还没有新样式时，把条目改为新样式的键，
+     * 调用者随后在原来的位图上重绘。返回 false 表示条目是共享的，不能原地修改
+     */
+    synchronized boolean rekey(Entry entry, BorderStyle style) {
+        if (entry.refCount != 1 || mEntries.get(entry.key) != entry || mEntries.containsKey(style)) {
+            return false;
+        }
+        mEntries.remove(entry.key);
+        entry.key = style;
+        entry.style = style;
+        mEntries.put(style, entry);
+        return true;
+    }
+
+    /**
+     * 不再使用条目时调用，引用计数减一
+     */
+    synchronized void release(Entry entry) {
+        if (entry.refCount > 0) {
+            entry.refCount--;
+        }
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * 条目是否还有人在使用
+     */
+    synchronized boolean isInUse(Entry entry) {
+        return entry.refCount > 0;
+    }
+
+    /**
+     * 按最近最少使用的顺序收集正在使用的条目，供 BorderMemory 超出预算时查找可以释放的 BorderDrawable
+     */
+    synchronized void collectInUse(ArrayList<Entry> out) {
+        for (Entry entry : mEntries.values()) {
+            if (entry.refCount > 0) {
+                out.add(entry);
+            }
+        }
+    }
+
+    /**
+     * 淘汰空闲条目，直到空间不超过 maxSize，正在使用的条目不会被淘汰
+     */
+    public synchronized void trimToSize(int maxSize) {
+        Iterator<Map.Entry<Object, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.refCount > 0) {
+                continue;
+            }
+            iterator.remove();
+            mSize -= entry.byteCount;
+            mEvictionCount++;
+            // 位图交给位图池，下次光栅化时复用
+            BitmapPool.getInstance().put(entry.bitmap);
+        }
+    }
+
+    public void evictAll() {
+        trimToSize(-1);
+    }
+
+    public synchronized void resize(int maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized int maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int entryCount() {
+        return mEntries.size();
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public synchronized int putCount() {
+        return mPutCount;
+    }
+
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return "NinePatchCache[size=" + mSize + ",maxSize=" + mMaxSize +
+                ",entries=" + mEntries.size() + ",hits=" + mHitCount + ",misses=" + mMissCount +
+                ",hitRate=" + hitPercent + "%]";
+    }
+
+    static final class Entry {
+        // 只有颜色变化时会被 rekey 修改
+        Object key;
+        // 键是 BorderStyle 时就是键，否则为 null
+        @Nullable
+        BorderStyle style;
+        final Bitmap bitmap;
+        @Nullable
+        final byte[] chunk;
+        // 没有 chunk 时为 null
+        @Nullable
+        final NinePatch ninePatch;
+        final int byteCount;
+        int refCount = 0;
+        // 正在使用条目的 BorderDrawable，由 BorderMemory 在主线程维护
+        final ArrayList<WeakReference<BorderDrawable>> holders = new ArrayList<WeakReference<BorderDrawable>>(1);
+
+        Entry(Object key, Bitmap bitmap, @Nullable byte[] chunk, String name) {
+            this.key = key;
+            this.style = key instanceof BorderStyle ? (BorderStyle) key : null;
+            this.bitmap = bitmap;
+            this.chunk = chunk;
+            this.ninePatch = chunk != null ? new NinePatch(bitmap, chunk, name) : null;
+            this.byteCount = bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * 持久化的 NinePatch 缓存，把光栅化好的像素和 chunk 按样式保存在一个内存映射文件里，
+ * 下次启动时直接从映射的内存拷进位图，不需要重新光栅化。
+ * 文件大小固定为 maxSize，写满之后清空重新开始；格式版本或者字节序不一致时整个文件作废。
+ * <p>
+ * 文件格式：文件头，然后依次是记录
+ * 文件头：魔数(i32) 版本(i32) 字节序(i32) 记录数(i32) 数据结尾(i32)
+ * 记录：记录长度(i32) 样式(13 x 4 + 线型 4 x 1) 宽(i32) 高(i32) 格式(i32) chunk(84) 像素长度(i32) 像素
+ */
+public final class NinePatchDiskCache {
+
+    private static final int MAGIC = 0x42444e50;
+    // 位图的生成方式或者 chunk 的格式变化时需要增加版本号
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE = 5 * 4;
+    private static final int OFFSET_COUNT = 12;
+    private static final int OFFSET_DATA_END = 16;
+
+    private static final int STYLE_SIZE = 14 * 4;
+    private static final int CHUNK_SIZE = 84;
+    private static final int RECORD_HEADER_SIZE = 4 + STYLE_SIZE + 4 + 4 + 4 + CHUNK_SIZE + 4;
+
+    // 位图格式
+    private static final int CONFIG_ARGB_8888 = 0;
+    private static final int CONFIG_ALPHA_8 = 1;
+
+    private final File mFile;
+    private final int mMaxSize;
+    private final MappedByteBuffer mBuffer;
+    // 样式到记录位置的索引，打开文件时扫描一遍建立
+    private final HashMap<BorderStyle, Integer> mIndex = new HashMap<BorderStyle, Integer>();
+    private final BorderStyle.Builder mBuilder = new BorderStyle.Builder();
+
+    private int mDataEnd;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+
+    /**
+     * 打开或者创建缓存文件，文件会被扩展或截断为 maxSize
+     */
+    public static NinePatchDiskCache open(File file, int maxSize) throws IOException {
+        if (maxSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("maxSize too small: " + maxSize);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(maxSize);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, maxSize);
+            return new NinePatchDiskCache(file, maxSize, buffer);
+        } finally {
+            // 映射在文件关闭之后依然有效
+            raf.close();
+        }
+    }
+
+    private NinePatchDiskCache(File file, int maxSize, MappedByteBuffer buffer) {
+        mFile = file;
+        mMaxSize = maxSize;
+        mBuffer = buffer;
+        if (!readHeader()) {
+            reset();
+        } else {
+            readIndex();
+        }
+    }
+
+    /**
+     * 查找样式对应的位图，找到的话放入内存缓存并返回条目，引用计数已经加一
+     */
+    synchronized NinePatchCache.Entry load(NinePatchCache cache, BorderStyle style, String name) {
+        Integer offset = mIndex.get(style);
+        if (offset == null) {
+            mMissCount++;
+            return null;
+        }
+        if (!isValidRecord(offset)) {
+            // 文件在映射期间被改坏了，当作没有
+            mIndex.remove(style);
+            mMissCount++;
+            return null;
+        }
+        int position = offset + 4 + STYLE_SIZE;
+        int width = mBuffer.getInt(position);
+        int height = mBuffer.getInt(position + 4);
+        Bitmap.Config config = mBuffer.getInt(position + 8) == CONFIG_ALPHA_8
+                ? Bitmap.Config.ALPHA_8
+                : Bitmap.Config.ARGB_8888;
+        position += 12;
+        byte[] chunk = new byte[CHUNK_SIZE];
+        ByteBuffer source = mBuffer.duplicate();
+        source.position(position);
+        source.get(chunk);
+        int pixelSize = source.getInt();
+        source.limit(source.position() + pixelSize);
+
+        Bitmap bitmap = BitmapPool.getInstance().get(width, height, config);
+        if (bitmap.getByteCount() != pixelSize) {
+            // 行对齐方式不一样，不能直接拷贝
+            BitmapPool.getInstance().put(bitmap);
+            mMissCount++;
+            return null;
+        }
+        // 直接从映射的内存拷进位图，没有中间的 byte[]
+        bitmap.copyPixelsFromBuffer(source);
+        mHitCount++;
+        BorderMetrics.notifyEvent(BorderMetrics.EVENT_DISK_HIT);
+        return cache.put(style, bitmap, chunk, name);
+    }
+
+    /**
+     * 保存光栅化的结果，空间不够时清空整个文件
+     */
+    synchronized void store(BorderStyle style, Bitmap bitmap, byte[] chunk) {
+        if (mIndex.containsKey(style) || chunk.length != CHUNK_SIZE) {
+            return;
+        }
+        int pixelSize = bitmap.getByteCount();
+        int recordSize = RECORD_HEADER_SIZE + pixelSize;
+        if (HEADER_SIZE + recordSize > mMaxSize) {
+            return;
+        }
+        if (mDataEnd + recordSize > mMaxSize) {
+            reset();
+        }
+
+        int offset = mDataEnd;
+        ByteBuffer target = mBuffer.duplicate();
+        target.position(offset);
+        target.putInt(recordSize);
+        writeStyle(target, style);
+        target.putInt(bitmap.getWidth());
+        target.putInt(bitmap.getHeight());
+        target.putInt(bitmap.getConfig() == Bitmap.Config.ALPHA_8 ? CONFIG_ALPHA_8 : CONFIG_ARGB_8888);
+        target.put(chunk);
+        target.putInt(pixelSize);
+        target.limit(target.position() + pixelSize);
+        bitmap.copyPixelsToBuffer(target);
+
+        // 记录写完之后再更新文件头，中途退出时下次启动只会丢掉这一条
+        mDataEnd = offset + recordSize;
+        mIndex.put(style, offset);
+        mPutCount++;
+        mBuffer.putInt(OFFSET_COUNT, mIndex.size());
+        mBuffer.putInt(OFFSET_DATA_END, mDataEnd);
+    }
+
+    /**
+     * 把修改写回磁盘，系统本身也会在适当的时候写回
+     */
+    public synchronized void flush() {
+        mBuffer.force();
+    }
+
+    public synchronized void clear() {
+        reset();
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public synchronized int size() {
+        return mDataEnd;
+    }
+
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int entryCount() {
+        return mIndex.size();
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public synchronized int putCount() {
+        return mPutCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NinePatchDiskCache[size=" + mDataEnd + ",maxSize=" + mMaxSize +
+                ",entries=" + mIndex.size() + ",hits=" + mHitCount + ",misses=" + mMissCount + "]";
+    }
+
+    private boolean readHeader() {
+        if (mBuffer.getInt(0) != MAGIC ||
+                mBuffer.getInt(4) != VERSION ||
+                mBuffer.getInt(8) != nativeOrder()) {
+            return false;
+        }
+        mDataEnd = mBuffer.getInt(OFFSET_DATA_END);
+        return mDataEnd >= HEADER_SIZE && mDataEnd <= mMaxSize;
+    }
+
+    private void readIndex() {
+        int count = mBuffer.getInt(OFFSET_COUNT);
+        int offset = HEADER_SIZE;
+        ByteBuffer source = mBuffer.duplicate();
+        for (int i = 0; i < count && offset + RECORD_HEADER_SIZE <= mDataEnd; i++) {
+            int recordSize = mBuffer.getInt(offset);
+            if (recordSize < RECORD_HEADER_SIZE || recordSize > mDataEnd - offset) {
+                break;
+            }
+            if (!isValidRecord(offset)) {
+                // 长度是对的，只是位图的信息不对，跳过这一条
+                offset += recordSize;
+                continue;
+            }
+            source.position(offset + 4);
+            BorderStyle style;
+            try {
+                style = readStyle(source);
+            } catch (IllegalArgumentException e) {
+                // 线型不合法，记录已经损坏
+                break;
+            }
+            mIndex.put(style, offset);
+            offset += recordSize;
+        }
+        // 丢掉不完整的记录
+        mDataEnd = offset;
+        mBuffer.putInt(OFFSET_COUNT, mIndex.size());
+        mBuffer.putInt(OFFSET_DATA_END, mDataEnd);
+    }
+
+    /**
+     * 检查记录里位图的宽高、格式和像素长度是否一致，并且像素没有超出记录
+     */
+    private boolean isValidRecord(int offset) {
+        if (offset < HEADER_SIZE || offset > mDataEnd - RECORD_HEADER_SIZE) {
+            return false;
+        }
+        int recordSize = mBuffer.getInt(offset);
+        if (recordSize < RECORD_HEADER_SIZE || recordSize > mDataEnd - offset) {
+            return false;
+        }
+        int recordEnd = offset + recordSize;
+        int position = offset + 4 + STYLE_SIZE;
+        int width = mBuffer.getInt(position);
+        int height = mBuffer.getInt(position + 4);
+        int config = mBuffer.getInt(position + 8);
+        int pixelSize = mBuffer.getInt(position + 12 + CHUNK_SIZE);
+        if (width <= 0 || height <= 0 || (config != CONFIG_ARGB_8888 && config != CONFIG_ALPHA_8)) {
+            return false;
+        }
+        long expected = (long) width * height * (config == CONFIG_ALPHA_8 ? 1 : 4);
+        // 像素从 chunk 和像素长度之后开始
+        return pixelSize == expected && (long) position + 12 + CHUNK_SIZE + 4 + pixelSize <= recordEnd;
+    }
+
+    private void reset() {
+        mIndex.clear();
+        mDataEnd = HEADER_SIZE;
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, VERSION);
+        mBuffer.putInt(8, nativeOrder());
+        mBuffer.putInt(OFFSET_COUNT, 0);
+        mBuffer.putInt(OFFSET_DATA_END, mDataEnd);
+    }
+
+    private static void writeStyle(ByteBuffer buffer, BorderStyle style) {
+        buffer.putFloat(style.topWidth);
+        buffer.putFloat(style.rightWidth);
+        buffer.putFloat(style.bottomWidth);
+        buffer.putFloat(style.leftWidth);
+        buffer.putInt(style.topColor);
+        buffer.putInt(style.rightColor);
+        buffer.putInt(style.bottomColor);
+        buffer.putInt(style.leftColor);
+        buffer.putFloat(style.topLeftRadius);
+        buffer.putFloat(style.topRightRadius);
+        buffer.putFloat(style.bottomRightRadius);
+        buffer.putFloat(style.bottomLeftRadius);
+        buffer.putInt(style.backgroundColor);
+        buffer.put((byte) style.topStyle);
+        buffer.put((byte) style.rightStyle);
+        buffer.put((byte) style.bottomStyle);
+        buffer.put((byte) style.leftStyle);
+    }
+
+    private BorderStyle readStyle(ByteBuffer buffer) {
+        return mBuilder
+                .setBorderWidths(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat())
+                .setBorderColors(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt())
+                .setBorderRadii(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat())
+                .setBackgroundColor(buffer.getInt())
+                .setBorderStyles(buffer.get(), buffer.get(), buffer.get(), buffer.get())
+                .build();
+    }
+
+    // chunk 是按本机字节序生成的
+    private static int nativeOrder() {
+        return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0;
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * 纯 Java 的边框光栅化，不依赖 Canvas 和 Path，可以在工作线程和普通的 JVM 上运行。
+ * 逐行扫描每个像素，用到边缘的有向距离估算覆盖率（直边是精确的，椭圆用一阶近似），
+ * 一次得到外框、内框、四条边的梯形和背景的抗锯齿结果，直接写入 ARGB 数组，可以用 Bitmap.setPixels 填充位图。
+ * ALPHA_8 的位图不要用 setPixels（部分版本上结果不对），用 copyAlpha 取出透明度后 copyPixelsFromBuffer。
+ * 合成顺序与 BorderPaths.draw 一致：背景，然后右、下、左、上四条边。
+ * <p>
+ * 对象持有可复用的像素数组，不是线程安全的，每个线程各用一个。
+ */
+public final class SoftwareRasterizer {
+
+    private static final float THRESHOLD = .001f;
+    private static final int ALPHA_SOLID = 0xFF;
+
+    // 顺序与合成顺序一致
+    private static final int SIDE_RIGHT = 0;
+    private static final int SIDE_BOTTOM = 1;
+    private static final int SIDE_LEFT = 2;
+    private static final int SIDE_TOP = 3;
+
+    private int[] mPixels;
+
+    // 每条边梯形的四个顶点：外框角、两个内侧顶点、外框角，四条边的排列方向相同
+    private final float[][] mSides = new float[4][8];
+    private final boolean[] mHasSide = new boolean[4];
+    private final float[] mColors = new float[4 * 4];
+    private final float[] mWeights = new float[4];
+
+    /**
+     * 按 geometry（已经调用过 set）光栅化到 pixelWidth x pixelHeight 的像素数组，
+     * 返回的数组会被下一次调用复用，长度可能大于 pixelWidth * pixelHeight。
+     * 颜色是非预乘的 ARGB，与 Bitmap.setPixels 的要求一致
+     */
+    public int[] rasterize(BorderGeometry geometry,
+                           float width, float height,
+                           int pixelWidth, int pixelHeight,
+                           int topColor, int rightColor, int bottomColor, int leftColor,
+                           int backgroundColor) {
+        int count = pixelWidth * pixelHeight;
+        if (mPixels == null || mPixels.length < count) {
+            mPixels = new int[count];
+        }
+        int[] pixels = mPixels;
+
+        geometry.computeInnerCorners(width, height);
+        setupSides(geometry, width, height);
+        setColor(SIDE_RIGHT, rightColor);
+        setColor(SIDE_BOTTOM, bottomColor);
+        setColor(SIDE_LEFT, leftColor);
+        setColor(SIDE_TOP, topColor);
+
+        float topWidth = geometry.topWidth;
+        float rightWidth = geometry.rightWidth;
+        float bottomWidth = geometry.bottomWidth;
+        float leftWidth = geometry.leftWidth;
+
+        boolean hasBackground = (backgroundColor >>> 24) > 0;
+        // 四条边都不透明时，背景只需要画在内框里
+        boolean borderIsOpaque = topWidth > THRESHOLD && rightWidth > THRESHOLD &&
+                bottomWidth > THRESHOLD && leftWidth > THRESHOLD &&
+                (topColor >>> 24) == ALPHA_SOLID && (rightColor >>> 24) == ALPHA_SOLID &&
+                (bottomColor >>> 24) == ALPHA_SOLID && (leftColor >>> 24) == ALPHA_SOLID;
+        float backgroundAlpha = (backgroundColor >>> 24) / 255f;
+        float backgroundRed = ((backgroundColor >> 16) & 0xFF) / 255f;
+        float backgroundGreen = ((backgroundColor >> 8) & 0xFF) / 255f;
+        float backgroundBlue = (backgroundColor & 0xFF) / 255f;
+
+        float innerRight = width - rightWidth;
+        float innerBottom = height - bottomWidth;
+        boolean hasInner = innerRight - leftWidth > 0 && innerBottom - topWidth > 0;
+
+        float[] outerRadii = geometry.outerRadii;
+        float[] innerRadii = geometry.innerRadii;
+        float[] weights = mWeights;
+        float[] colors = mColors;
+
+        for (int y = 0; y < pixelHeight; y++) {
+            float py = y + .5f;
+            int row = y * pixelWidth;
+            for (int x = 0; x < pixelWidth; x++) {
+                float px = x + .5f;
+
+                float outer = coverage(roundRectDistance(px, py, 0, 0, width, height, outerRadii));
+                if (outer <= 0) {
+                    pixels[row + x] = 0;
+                    continue;
+                }
+                float inner = hasInner
+                        ? coverage(roundRectDistance(px, py, leftWidth, topWidth, innerRight, innerBottom, innerRadii))
+                        : 0;
+                float border = Math.max(0, outer - inner);
+
+                // 预乘的颜色，按源覆盖合成
+                float a = 0, r = 0, g = 0, b = 0;
+                if (hasBackground) {
+                    float alpha = backgroundAlpha * (borderIsOpaque ? inner : outer);
+                    a = alpha;
+                    r = backgroundRed * alpha;
+                    g = backgroundGreen * alpha;
+                    b = backgroundBlue * alpha;
+                }
+
+                if (border > 0) {
+                    computeWeights(px, py);
+                    for (int side = 0; side < 4; side++) {
+                        float weight = weights[side];
+                        if (weight <= 0) {
+                            continue;
+                        }
+                        int offset = side * 4;
+                        float alpha = colors[offset] * border * weight;
+                        float inverse = 1 - alpha;
+                        a = alpha + a * inverse;
+                        r = colors[offset + 1] * alpha + r * inverse;
+                        g = colors[offset + 2] * alpha + g * inverse;
+                        b = colors[offset + 3] * alpha + b * inverse;
+                    }
+                }
+
+                pixels[row + x] = toColor(a, r, g, b);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * 把 rasterize 的结果的透明度按 ALPHA_8 位图的行宽写入 out，out 的长度至少是 rowBytes * pixelHeight，
+     * 每行多出来的部分清零
+     */
+    public static void copyAlpha(int[] pixels, int pixelWidth, int pixelHeight, byte[] out, int rowBytes) {
+        for (int y = 0; y < pixelHeight; y++) {
+            int row = y * pixelWidth;
+            int offset = y * rowBytes;
+            for (int x = 0; x < pixelWidth; x++) {
+                out[offset + x] = (byte) (pixels[row + x] >>> 24);
+            }
+            for (int x = pixelWidth; x < rowBytes; x++) {
+                out[offset + x] = 0;
+            }
+        }
+    }
+
+    private void setColor(int side, int color) {
+        int offset = side * 4;
+        mColors[offset] = (color >>> 24) / 255f;
+        mColors[offset + 1] = ((color >> 16) & 0xFF) / 255f;
+        mColors[offset + 2] = ((color >> 8) & 0xFF) / 255f;
+        mColors[offset + 3] = (color & 0xFF) / 255f;
+    }
+
+    private void setupSides(BorderGeometry geometry, float width, float height) {
+        float[] corners = geometry.innerCorners;
+        float tlx = corners[BorderGeometry.TOP_LEFT_X];
+        float tly = corners[BorderGeometry.TOP_LEFT_Y];
+        float trx = corners[BorderGeometry.TOP_RIGHT_X];
+        float try_ = corners[BorderGeometry.TOP_RIGHT_Y];
+        float brx = corners[BorderGeometry.BOTTOM_RIGHT_X];
+        float bry = corners[BorderGeometry.BOTTOM_RIGHT_Y];
+        float blx = corners[BorderGeometry.BOTTOM_LEFT_X];
+        float bly = corners[BorderGeometry.BOTTOM_LEFT_Y];
+
+        // 顶点顺序：外框角、内侧顶点、内侧顶点、外框角，第 0-1 条和第 2-3 条是斜边
+        setSide(SIDE_TOP, geometry.topWidth, 0, 0, tlx, tly, trx, try_, width, 0);
+        setSide(SIDE_RIGHT, geometry.rightWidth, width, 0, trx, try_, brx, bry, width, height);
+        setSide(SIDE_BOTTOM, geometry.bottomWidth, width, height, brx, bry, blx, bly, 0, height);
+        setSide(SIDE_LEFT, geometry.leftWidth, 0, height, blx, bly, tlx, tly, 0, 0);
+    }
+
+    private void setSide(int side, float borderWidth,
+                         float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3) {
+        mHasSide[side] = borderWidth > 0;
+        float[] points = mSides[side];
+        points[0] = x0;
+        points[1] = y0;
+        points[2] = x1;
+        points[3] = y1;
+        points[4] = x2;
+        points[5] = y2;
+        points[6] = x3;
+        points[7] = y3;
+    }
+
+    /**
+     * 计算像素属于每条边的比例。斜边两侧的覆盖率互补，相邻两条边的比例之和为 1；
+     * 内侧的连线在内框里面，只排除整个像素都越过连线的情况，跨过内框边缘的像素由内框的覆盖率处理
+     */
+    private void computeWeights(float px, float py) {
+        for (int side = 0; side < 4; side++) {
+            float weight = 0;
+            if (mHasSide[side]) {
+                float[] p = mSides[side];
+                weight = coverage(edgeDistance(p[0], p[1], p[2], p[3], px, py)) *
+                        coverage(edgeDistance(p[4], p[5], p[6], p[7], px, py));
+                if (weight > 0 && edgeDistance(p[2], p[3], p[4], p[5], px, py) > .5f) {
+                    weight = 0;
+                }
+            }
+            mWeights[side] = weight;
+        }
+    }
+
+    /**
+     * 点到有向线段所在直线的有向距离，按 setupSides 的顶点顺序，梯形内部为负。
+     * 线段退化成点时返回负的很大的值，表示不限制
+     */
+    private static float edgeDistance(float ax, float ay, float bx, float by, float px, float py) {
+        float dx = bx - ax;
+        float dy = by - ay;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length < THRESHOLD) {
+            return -Float.MAX_VALUE;
+        }
+        return (dx * (py - ay) - dy * (px - ax)) / length;
+    }
+
+    /**
+     * 到圆角矩形边缘的有向距离，内部为负。radii 与 GradientDrawable.setCornerRadii 的顺序相同
+     */
+    private static float roundRectDistance(float px, float py,
+                                           float left, float top, float right, float bottom,
+                                           float[] radii) {
+        // 不能按中线划分象限，一个角的半径可能超过边长的一半，缩放后相邻两个角的范围不会重叠
+        float rx = radii[BorderGeometry.TOP_LEFT_X];
+        float ry = radii[BorderGeometry.TOP_LEFT_Y];
+        if (px < left + rx && py < top + ry) {
+            return ellipseDistance(px - left - rx, py - top - ry, rx, ry);
+        }
+        rx = radii[BorderGeometry.TOP_RIGHT_X];
+        ry = radii[BorderGeometry.TOP_RIGHT_Y];
+        if (px > right - rx && py < top + ry) {
+            return ellipseDistance(px - right + rx, py - top - ry, rx, ry);
+        }
+        rx = radii[BorderGeometry.BOTTOM_RIGHT_X];
+        ry = radii[BorderGeometry.BOTTOM_RIGHT_Y];
+        if (px > right - rx && py > bottom - ry) {
+            return ellipseDistance(px - right + rx, py - bottom + ry, rx, ry);
+        }
+        rx = radii[BorderGeometry.BOTTOM_LEFT_X];
+        ry = radii[BorderGeometry.BOTTOM_LEFT_Y];
+        if (px < left + rx && py > bottom - ry) {
+            return ellipseDistance(px - left - rx, py - bottom + ry, rx, ry);
+        }
+        return Math.max(Math.max(left - px, px - right), Math.max(top - py, py - bottom));
+    }
+
+    // 椭圆的有向距离的一阶近似，k0 * (k0 - 1) / k1
+    private static float ellipseDistance(float x, float y, float rx, float ry) {
+        if (rx < THRESHOLD || ry < THRESHOLD) {
+            return Math.max(Math.abs(x) - rx, Math.abs(y) - ry);
+        }
+        float nx = x / rx;
+        float ny = y / ry;
+        float k0 = (float) Math.sqrt(nx * nx + ny * ny);
+        float mx = nx / rx;
+        float my = ny / ry;
+        float k1 = (float) Math.sqrt(mx * mx + my * my);
+        if (k1 == 0) {
+            return -Math.min(rx, ry);
+        }
+        return k0 * (k0 - 1) / k1;
+    }
+
+    // 像素中心到边缘的距离转换为覆盖率
+    private static float coverage(float distance) {
+        float value = .5f - distance;
+        return value <= 0 ? 0 : (value >= 1 ? 1 : value);
+    }
+
+    private static int toColor(float a, float r, float g, float b) {
+        if (a <= 0) {
+            return 0;
+        }
+        int alpha = Math.round(a * 255);
+        if (alpha == 0) {
+            return 0;
+        }
+        // 转换为非预乘
+        int red = Math.min(255, Math.round(r / a * 255));
+        int green = Math.min(255, Math.round(g / a * 255));
+        int blue = Math.min(255, Math.round(b / a * 255));
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+}
@@ -0,0 +1,117 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BorderGeometry 每次 update 和直接绘制时都会调用的几个计算。
+ * 样式预先随机生成，轮流使用，避免 JIT 把固定的输入当作常量折叠掉
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BorderGeometryBenchmark {
+
+    private static final int SHAPE_COUNT = 1024;
+    private static final int VALUES_PER_SHAPE = 10;
+
+    /**
+     * uniform：四个角相同；mixed：每个角不同；overflow：圆角之和超过边长，需要等比缩小
+     */
+    @Param({"uniform", "mixed", "overflow"})
+    public String shape;
+
+    private final BorderGeometry mGeometry = new BorderGeometry();
+    private final float[] mIntersection = new float[2];
+    private float[] mShapes;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mShapes = new float[SHAPE_COUNT * VALUES_PER_SHAPE];
+        for (int i = 0; i < SHAPE_COUNT; i++) {
+            int offset = i * VALUES_PER_SHAPE;
+            float width = 40 + random.nextFloat() * 200;
+            float height = 20 + random.nextFloat() * 100;
+            for (int side = 0; side < 4; side++) {
+                mShapes[offset + side] = random.nextFloat() * 8;
+            }
+            float radius = random.nextFloat() * Math.min(width, height) / 2;
+            for (int corner = 0; corner < 4; corner++) {
+                float value;
+                if ("uniform".equals(shape)) {
+                    value = radius;
+                } else if ("mixed".equals(shape)) {
+                    value = random.nextFloat() * Math.min(width, height) / 2;
+                } else {
+                    value = Math.max(width, height) * (.6f + random.nextFloat());
+                }
+                mShapes[offset + 4 + corner] = value;
+            }
+            mShapes[offset + 8] = width;
+            mShapes[offset + 9] = height;
+        }
+    }
+
+    private int nextOffset() {
+        int index = mIndex;
+        mIndex = (index + 1) & (SHAPE_COUNT - 1);
+        return index * VALUES_PER_SHAPE;
+    }
+
+    private void setGeometry(int offset) {
+        float[] s = mShapes;
+        mGeometry.set(s[offset], s[offset + 1], s[offset + 2], s[offset + 3],
+                s[offset + 4], s[offset + 5], s[offset + 6], s[offset + 7]);
+    }
+
+    /**
+     * 光栅化和 BorderPaths 的准备工作：圆角、九宫格边距和图片尺寸
+     */
+    @Benchmark
+    public void set(Blackhole blackhole) {
+        setGeometry(nextOffset());
+        blackhole.consume(mGeometry.width);
+        blackhole.consume(mGeometry.height);
+    }
+
+    /**
+     * 完整的一次计算，包括四条边梯形的内侧顶点
+     */
+    @Benchmark
+    public void setAndComputeInnerCorners(Blackhole blackhole) {
+        int offset = nextOffset();
+        setGeometry(offset);
+        mGeometry.computeInnerCorners(mShapes[offset + 8], mShapes[offset + 9]);
+        blackhole.consume(mGeometry.innerCorners[BorderGeometry.BOTTOM_RIGHT_X]);
+    }
+
+    /**
+     * 单次直线与椭圆求交
+     */
+    @Benchmark
+    public boolean intersectEllipse() {
+        int offset = nextOffset();
+        float[] s = mShapes;
+        float radius = s[offset + 4] + 1;
+        return BorderGeometry.intersectEllipse(radius, radius, radius, radius * .5f,
+                0, 0, s[offset + 8], s[offset + 9], mIntersection);
+    }
+}
@@ -0,0 +1,71 @@
+import android.graphics.Color;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 动画中间帧的插值和复用
+ */
+public class BorderStyleTest {
+
+    @Test
+    public void fadingToTransparentKeepsTheColor() {
+        BorderStyle from = new BorderStyle.Builder().setBackgroundColor(Color.RED).build();
+        BorderStyle to = new BorderStyle.Builder().setBackgroundColor(Color.TRANSPARENT).build();
+        BorderStyle frame = new BorderStyle.Builder().setInterpolated(from, to, .5f).build();
+        // 非预乘插值会得到 0x80800000，颜色变暗
+        assertEquals(0x80FF0000, frame.backgroundColor);
+    }
+
+    @Test
+    public void interpolatesPremultipliedColors() {
+        BorderStyle from = new BorderStyle.Builder().setBackgroundColor(0xFFFF0000).build();
+        BorderStyle to = new BorderStyle.Builder().setBackgroundColor(0x400000FF).build();
+        BorderStyle frame = new BorderStyle.Builder().setInterpolated(from, to, .5f).build();
+        // 预乘后红 255、蓝 64，平均后再除以透明度 0.625
+        assertEquals(0xA0CC0033, frame.backgroundColor);
+    }
+
+    @Test
+    public void frameMatchesTheInterpolatedStyle() {
+        BorderStyle from = new BorderStyle.Builder()
+                .setBorderWidths(1, 2, 3, 4)
+                .setBorderColors(Color.RED, Color.RED, Color.RED, Color.RED)
+                .setBorderRadii(4, 4, 4, 4)
+                .build();
+        BorderStyle to = new BorderStyle.Builder()
+                .setBorderWidths(5, 6, 7, 8)
+                .setBorderColors(Color.BLUE, Color.BLUE, Color.BLUE, 0x800000FF)
+                .setBackgroundColor(Color.WHITE)
+                .build();
+        FrameStyle frame = new FrameStyle();
+        frame.setInterpolated(from, to, .25f);
+        BorderStyle style = new BorderStyle.Builder().setInterpolated(from, to, .25f).build();
+        assertEquals(style.topWidth, frame.topWidth, 0f);
+        assertEquals(style.leftWidth, frame.leftWidth, 0f);
+        assertEquals(style.topLeftRadius, frame.topLeftRadius, 0f);
+        assertEquals(style.topColor, frame.topColor);
+        assertEquals(style.leftColor, frame.leftColor);
+        assertEquals(style.backgroundColor, frame.backgroundColor);
+        assertEquals(style.hasBackground, frame.hasBackground);
+        assertEquals(style.backgroundIsSolid, frame.backgroundIsSolid);
+        assertEquals(style.borderIsOpaque, frame.borderIsOpaque);
+        assertEquals(style.hasCornerRadii, frame.hasCornerRadii);
+        assertEquals(style.visibleBorderColor, frame.visibleBorderColor);
+    }
+
+    @Test
+    public void reusingAFrameRecomputesDerivedState() {
+        BorderStyle rounded = new BorderStyle.Builder().setBorderWidths(2, 2, 2, 2).setBorderRadii(4, 4, 4, 4).build();
+        BorderStyle square = new BorderStyle.Builder().setBorderWidths(3, 3, 3, 3).build();
+        FrameStyle frame = new FrameStyle();
+        frame.setInterpolated(rounded, square, 0);
+        assertTrue(frame.hasCornerRadii);
+        frame.setInterpolated(rounded, square, 1);
+        assertFalse(frame.hasCornerRadii);
+        assertEquals(3f, frame.topWidth, 0f);
+    }
+}
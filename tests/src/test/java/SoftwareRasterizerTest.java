@@ -0,0 +1,260 @@
+import android.graphics.Color;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SoftwareRasterizer 与精确几何的超采样结果比较。参考结果按 BorderPaths 的方式分层：
+ * 背景和四条边各自算覆盖率后按顺序合成，与 Canvas 逐条路径抗锯齿绘制的结果一致。
+ * 比较的是预乘后的 0-255 分量
+ */
+public class SoftwareRasterizerTest {
+
+    // 每个像素 16x16 个采样点
+    private static final int SAMPLES = 16;
+    // 单个像素分量的最大误差，误差集中在边缘上一个像素宽的范围内
+    private static final int MAX_ERROR = 32;
+    // 所有像素分量的平均误差
+    private static final double MAX_MEAN_ERROR = .5;
+
+    private static final int SIDE_RIGHT = 0;
+    private static final int SIDE_BOTTOM = 1;
+    private static final int SIDE_LEFT = 2;
+    private static final int SIDE_TOP = 3;
+
+    @Test
+    public void uniformBorderWithoutRadii() {
+        assertMatchesReference(new float[]{4, 4, 4, 4}, new float[]{0, 0, 0, 0},
+                Color.RED, Color.RED, Color.RED, Color.RED, Color.WHITE);
+    }
+
+    @Test
+    public void uniformBorderWithRadii() {
+        assertMatchesReference(new float[]{3, 3, 3, 3}, new float[]{12, 12, 12, 12},
+                Color.BLUE, Color.BLUE, Color.BLUE, Color.BLUE, Color.TRANSPARENT);
+    }
+
+    @Test
+    public void mixedWidthsColorsAndRadii() {
+        assertMatchesReference(new float[]{2, 6, 3.5f, 9}, new float[]{16, 4, 0, 24},
+                Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW, 0x80336699);
+    }
+
+    @Test
+    public void missingSideAndTranslucentColors() {
+        assertMatchesReference(new float[]{5, 0, 5, 2}, new float[]{10, 20, 10, 3},
+                0x80FF0000, Color.BLACK, 0xC000FF00, Color.CYAN, Color.WHITE);
+    }
+
+    @Test
+    public void radiiLargerThanTheBox() {
+        assertMatchesReference(new float[]{7, 7, 7, 7}, new float[]{60, 60, 60, 60},
+                Color.MAGENTA, Color.MAGENTA, Color.MAGENTA, Color.MAGENTA, Color.LTGRAY);
+    }
+
+    private static void assertMatchesReference(float[] widths, float[] radii,
+                                               int topColor, int rightColor, int bottomColor, int leftColor,
+                                               int backgroundColor) {
+        BorderGeometry geometry = new BorderGeometry();
+        geometry.set(widths[0], widths[1], widths[2], widths[3], radii[0], radii[1], radii[2], radii[3]);
+        float width = geometry.width;
+        float height = geometry.height;
+        int pixelWidth = (int) Math.ceil(width);
+        int pixelHeight = (int) Math.ceil(height);
+
+        int[] pixels = new SoftwareRasterizer().rasterize(geometry, width, height, pixelWidth, pixelHeight,
+                topColor, rightColor, bottomColor, leftColor, backgroundColor);
+        int[] colors = new int[4];
+        colors[SIDE_RIGHT] = rightColor;
+        colors[SIDE_BOTTOM] = bottomColor;
+        colors[SIDE_LEFT] = leftColor;
+        colors[SIDE_TOP] = topColor;
+        float[] sideWidths = {widths[1], widths[2], widths[3], widths[0]};
+        Reference reference = new Reference(geometry, width, height, sideWidths, colors, backgroundColor);
+
+        int maxError = 0;
+        long totalError = 0;
+        float[] expected = new float[4];
+        for (int y = 0; y < pixelHeight; y++) {
+            for (int x = 0; x < pixelWidth; x++) {
+                reference.pixel(x, y, expected);
+                int actual = pixels[y * pixelWidth + x];
+                float alpha = (actual >>> 24) / 255f;
+                int[] components = {
+                        actual >>> 24,
+                        Math.round(((actual >> 16) & 0xFF) * alpha),
+                        Math.round(((actual >> 8) & 0xFF) * alpha),
+                        Math.round((actual & 0xFF) * alpha)};
+                for (int i = 0; i < 4; i++) {
+                    int error = Math.abs(components[i] - Math.round(expected[i] * 255));
+                    maxError = Math.max(maxError, error);
+                    totalError += error;
+                }
+            }
+        }
+        double meanError = (double) totalError / (pixelWidth * pixelHeight * 4);
+        assertTrue("max error " + maxError, maxError <= MAX_ERROR);
+        assertTrue("mean error " + meanError, meanError <= MAX_MEAN_ERROR);
+    }
+
+    @Test
+    public void copyAlphaUsesTheRowStride() {
+        int[] pixels = {0xFF000000, 0x80FFFFFF, 0x00FFFFFF, 0x40000000};
+        byte[] out = {9, 9, 9, 9, 9, 9, 9, 9};
+        SoftwareRasterizer.copyAlpha(pixels, 2, 2, out, 4);
+        byte[] expected = {(byte) 0xFF, (byte) 0x80, 0, 0, 0, 0x40, 0, 0};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("byte " + i, expected[i], out[i]);
+        }
+    }
+
+    /**
+     * 精确的圆角矩形和梯形判断，按采样点计数得到覆盖率
+     */
+    private static final class Reference {
+
+        private final BorderGeometry mGeometry;
+        private final float mWidth;
+        private final float mHeight;
+        private final float[][] mSides = new float[4][];
+        private final boolean[] mHasSide = new boolean[4];
+        private final int[] mColors;
+        private final int mBackgroundColor;
+        private final boolean mBorderIsOpaque;
+        private final int[] mCounts = new int[6];
+
+        Reference(BorderGeometry geometry, float width, float height, float[] sideWidths,
+                  int[] colors, int backgroundColor) {
+            mGeometry = geometry;
+            mWidth = width;
+            mHeight = height;
+            mColors = colors;
+            mBackgroundColor = backgroundColor;
+
+            geometry.computeInnerCorners(width, height);
+            float[] c = geometry.innerCorners;
+            mSides[SIDE_TOP] = new float[]{0, 0,
+                    c[BorderGeometry.TOP_LEFT_X], c[BorderGeometry.TOP_LEFT_Y],
+                    c[BorderGeometry.TOP_RIGHT_X], c[BorderGeometry.TOP_RIGHT_Y], width, 0};
+            mSides[SIDE_RIGHT] = new float[]{width, 0,
+                    c[BorderGeometry.TOP_RIGHT_X], c[BorderGeometry.TOP_RIGHT_Y],
+                    c[BorderGeometry.BOTTOM_RIGHT_X], c[BorderGeometry.BOTTOM_RIGHT_Y], width, height};
+            mSides[SIDE_BOTTOM] = new float[]{width, height,
+                    c[BorderGeometry.BOTTOM_RIGHT_X], c[BorderGeometry.BOTTOM_RIGHT_Y],
+                    c[BorderGeometry.BOTTOM_LEFT_X], c[BorderGeometry.BOTTOM_LEFT_Y], 0, height};
+            mSides[SIDE_LEFT] = new float[]{0, height,
+                    c[BorderGeometry.BOTTOM_LEFT_X], c[BorderGeometry.BOTTOM_LEFT_Y],
+                    c[BorderGeometry.TOP_LEFT_X], c[BorderGeometry.TOP_LEFT_Y], 0, 0};
+            boolean opaque = true;
+            for (int side = 0; side < 4; side++) {
+                mHasSide[side] = sideWidths[side] > 0;
+                opaque &= mHasSide[side] && Color.alpha(colors[side]) == 0xFF;
+            }
+            mBorderIsOpaque = opaque;
+        }
+
+        /**
+         * 预乘的 a、r、g、b，范围 0-1
+         */
+        void pixel(int x, int y, float[] out) {
+            BorderGeometry g = mGeometry;
+            float innerRight = mWidth - g.rightWidth;
+            float innerBottom = mHeight - g.bottomWidth;
+            int[] counts = mCounts;
+            // 0-3 是四条边，4 是外框，5 是内框
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = 0;
+            }
+            for (int sy = 0; sy < SAMPLES; sy++) {
+                float py = y + (sy + .5f) / SAMPLES;
+                for (int sx = 0; sx < SAMPLES; sx++) {
+                    float px = x + (sx + .5f) / SAMPLES;
+                    if (!inRoundRect(px, py, 0, 0, mWidth, mHeight, g.outerRadii)) {
+                        continue;
+                    }
+                    counts[4]++;
+                    if (inRoundRect(px, py, g.leftWidth, g.topWidth, innerRight, innerBottom, g.innerRadii)) {
+                        counts[5]++;
+                        continue;
+                    }
+                    for (int side = 0; side < 4; side++) {
+                        if (mHasSide[side] && inSide(mSides[side], px, py)) {
+                            counts[side]++;
+                        }
+                    }
+                }
+            }
+
+            float total = SAMPLES * SAMPLES;
+            float a = 0, r = 0, gr = 0, b = 0;
+            if (Color.alpha(mBackgroundColor) > 0) {
+                float alpha = Color.alpha(mBackgroundColor) / 255f * counts[mBorderIsOpaque ? 5 : 4] / total;
+                a = alpha;
+                r = Color.red(mBackgroundColor) / 255f * alpha;
+                gr = Color.green(mBackgroundColor) / 255f * alpha;
+                b = Color.blue(mBackgroundColor) / 255f * alpha;
+            }
+            for (int side = 0; side < 4; side++) {
+                int color = mColors[side];
+                float alpha = Color.alpha(color) / 255f * counts[side] / total;
+                float inverse = 1 - alpha;
+                a = alpha + a * inverse;
+                r = Color.red(color) / 255f * alpha + r * inverse;
+                gr = Color.green(color) / 255f * alpha + gr * inverse;
+                b = Color.blue(color) / 255f * alpha + b * inverse;
+            }
+            out[0] = a;
+            out[1] = r;
+            out[2] = gr;
+            out[3] = b;
+        }
+
+        private static boolean inSide(float[] p, float px, float py) {
+            return cross(p[0], p[1], p[2], p[3], px, py) <= 0 &&
+                    cross(p[4], p[5], p[6], p[7], px, py) <= 0 &&
+                    cross(p[2], p[3], p[4], p[5], px, py) <= 0;
+        }
+
+        // 线段退化成点时不限制
+        private static float cross(float ax, float ay, float bx, float by, float px, float py) {
+            float dx = bx - ax;
+            float dy = by - ay;
+            if (dx == 0 && dy == 0) {
+                return -1;
+            }
+            return dx * (py - ay) - dy * (px - ax);
+        }
+
+        private static boolean inRoundRect(float px, float py, float left, float top, float right, float bottom,
+                                           float[] radii) {
+            if (px < left || px > right || py < top || py > bottom) {
+                return false;
+            }
+            return inCorner(px, py, left + radii[BorderGeometry.TOP_LEFT_X], top + radii[BorderGeometry.TOP_LEFT_Y],
+                    radii[BorderGeometry.TOP_LEFT_X], radii[BorderGeometry.TOP_LEFT_Y], -1, -1) &&
+                    inCorner(px, py, right - radii[BorderGeometry.TOP_RIGHT_X], top + radii[BorderGeometry.TOP_RIGHT_Y],
+                            radii[BorderGeometry.TOP_RIGHT_X], radii[BorderGeometry.TOP_RIGHT_Y], 1, -1) &&
+                    inCorner(px, py, right - radii[BorderGeometry.BOTTOM_RIGHT_X],
+                            bottom - radii[BorderGeometry.BOTTOM_RIGHT_Y],
+                            radii[BorderGeometry.BOTTOM_RIGHT_X], radii[BorderGeometry.BOTTOM_RIGHT_Y], 1, 1) &&
+                    inCorner(px, py, left + radii[BorderGeometry.BOTTOM_LEFT_X],
+                            bottom - radii[BorderGeometry.BOTTOM_LEFT_Y],
+                            radii[BorderGeometry.BOTTOM_LEFT_X], radii[BorderGeometry.BOTTOM_LEFT_Y], -1, 1);
+        }
+
+        // 只有落在圆角的外侧象限里才需要判断椭圆
+        private static boolean inCorner(float px, float py, float cx, float cy, float rx, float ry,
+                                        int signX, int signY) {
+            float dx = px - cx;
+            float dy = py - cy;
+            if (dx * signX <= 0 || dy * signY <= 0 || rx <= 0 || ry <= 0) {
+                return true;
+            }
+            float nx = dx / rx;
+            float ny = dy / ry;
+            return nx * nx + ny * ny <= 1;
+        }
+    }
+}
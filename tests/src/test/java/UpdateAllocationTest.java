@@ -0,0 +1,115 @@
+import android.graphics.Color;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * setStyle/update 在样式没有变化、或者只在已有 Drawable 上改颜色时不应该分配内存
+ */
+public class UpdateAllocationTest {
+
+    private static final int ITERATIONS = 10000;
+
+    @Test
+    public void buildingAnExistingStyleReturnsThePooledInstance() {
+        BorderStyle.Builder builder = newBuilder();
+        BorderStyle style = builder.build();
+        warmUp(builder);
+
+        long start = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertSame(style, builder.setBackgroundColor(Color.WHITE).build());
+        }
+        assertNoAllocation(allocatedBytes() - start);
+    }
+
+    @Test
+    public void setStyleAndUpdateDoNotAllocate() {
+        // 不需要绘制的样式不会创建 Paint 之类依赖 native 的对象，可以在 JVM 上走完整个 update
+        BorderStyle first = new BorderStyle.Builder().setBorderRadii(4, 4, 4, 4).build();
+        BorderStyle second = new BorderStyle.Builder().setBorderRadii(8, 8, 8, 8).build();
+        BorderDrawable drawable = new BorderDrawable(null, "test");
+        for (int i = 0; i < ITERATIONS; i++) {
+            swap(drawable, first, second);
+        }
+
+        long start = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            swap(drawable, first, second);
+            // 样式相同时直接返回
+            drawable.setStyle(second);
+            drawable.update();
+        }
+        assertNoAllocation(allocatedBytes() - start);
+    }
+
+    @Test
+    public void geometryKernelDoesNotAllocate() {
+        BorderGeometry geometry = new BorderGeometry();
+        for (int i = 0; i < ITERATIONS; i++) {
+            setGeometry(geometry, i);
+        }
+
+        long start = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            setGeometry(geometry, i);
+        }
+        assertNoAllocation(allocatedBytes() - start);
+    }
+
+    @Test
+    public void animationFramesDoNotAllocate() {
+        BorderStyle from = newBuilder().build();
+        BorderStyle to = newBuilder().setBorderWidths(4, 3, 2, 1).setBackgroundColor(Color.TRANSPARENT).build();
+        FrameStyle frame = new FrameStyle();
+        for (int i = 0; i < ITERATIONS; i++) {
+            frame.setInterpolated(from, to, i / (float) ITERATIONS);
+        }
+
+        long start = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            frame.setInterpolated(from, to, i / (float) ITERATIONS);
+        }
+        assertNoAllocation(allocatedBytes() - start);
+    }
+
+    private static void swap(BorderDrawable drawable, BorderStyle first, BorderStyle second) {
+        drawable.setStyle(first);
+        drawable.update();
+        drawable.setStyle(second);
+        drawable.update();
+    }
+
+    private static void setGeometry(BorderGeometry geometry, int i) {
+        geometry.set(1, 2, 3, 4, 5 + i % 7, 6, 40, 8);
+        geometry.computeInnerCorners(60, 40);
+    }
+
+    private static BorderStyle.Builder newBuilder() {
+        return new BorderStyle.Builder()
+                .setBorderWidths(1, 2, 3, 4)
+                .setBorderColors(Color.RED, Color.GREEN, Color.BLUE, Color.BLACK)
+                .setBorderRadii(4, 8, 4, 8)
+                .setBackgroundColor(Color.WHITE);
+    }
+
+    private static void warmUp(BorderStyle.Builder builder) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            builder.setBackgroundColor(Color.WHITE).build();
+        }
+    }
+
+    // 允许测量本身的少量分配，但是远小于每次迭代一个对象
+    private static void assertNoAllocation(long bytes) {
+        assertTrue("allocated " + bytes + " bytes in " + ITERATIONS + " iterations", bytes < ITERATIONS);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}